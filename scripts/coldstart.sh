@@ -0,0 +1,61 @@
+#!/usr/bin/env bash
+# Measures the referee's cold start as brutaltester sees it: the time from launching the JVM to the first
+# "###Input" line, over several launches.
+#
+#   scripts/coldstart.sh [-n runs] [-cds archive.jsa] [-java java] [-J jvm-option]... [jar]
+#
+# -cds uses a class data sharing archive (Java 13 or later), dumping it first from a scripted game when it does not
+# exist yet. -J passes an option to the JVM, e.g. -J -XX:TieredStopAtLevel=1. Prints the minimum, median and maximum
+# in milliseconds.
+set -euo pipefail
+
+runs=20
+cds=
+java=java
+flags=()
+while [ $# -gt 0 ]; do
+    case "$1" in
+        -n) runs=$2; shift 2 ;;
+        -cds) cds=$2; shift 2 ;;
+        -java) java=$2; shift 2 ;;
+        -J) flags+=("$2"); shift 2 ;;
+        *) break ;;
+    esac
+done
+jar=${1:-cg-c4l.jar}
+
+if [ -n "$cds" ]; then
+    if [ ! -f "$cds" ]; then
+        # Play a whole game of WAITs so the archive holds every class a game loads
+        coproc TRAINING { "$java" "${flags[@]}" -XX:ArchiveClassesAtExit="$cds" -jar "$jar" 2>/dev/null; }
+        echo "###Start 2" >&"${TRAINING[1]}"
+        while read -r line <&"${TRAINING[0]}"; do
+            case "$line" in
+                "###Output"*) echo "WAIT" >&"${TRAINING[1]}" ;;
+                "###End"*) break ;;
+            esac
+        done
+        exec {TRAINING[1]}>&-
+        wait "$TRAINING_PID" || true
+    fi
+    flags+=(-XX:SharedArchiveFile="$cds")
+fi
+
+times=()
+for ((run = 0; run < runs; ++run)); do
+    start=$(date +%s%N)
+    coproc REFEREE { "$java" "${flags[@]}" -jar "$jar" 2>/dev/null; }
+    echo "###Start 2" >&"${REFEREE[1]}"
+    while read -r line <&"${REFEREE[0]}"; do
+        if [[ "$line" == "###Input"* ]]; then
+            break
+        fi
+    done
+    end=$(date +%s%N)
+    kill "$REFEREE_PID" 2>/dev/null || true
+    wait "$REFEREE_PID" 2>/dev/null || true
+    times+=($(((end - start) / 1000000)))
+done
+
+sorted=($(printf '%s\n' "${times[@]}" | sort -n))
+echo "time to first ###Input over $runs launches: min ${sorted[0]} ms, median ${sorted[$((runs / 2))]} ms, max ${sorted[$((runs - 1))]} ms"
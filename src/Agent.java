@@ -0,0 +1,10 @@
+/**
+ * Plays for a player inside the referee JVM, see Referee.setAgent. An agent reads the game state directly but only
+ * looks at what the player's input would tell it.
+ */
+interface Agent {
+    /**
+     * @return the player's output line for this turn
+     */
+    String act(Referee referee, Referee.PlayerData me, Referee.PlayerData opponent);
+}
@@ -0,0 +1,159 @@
+import java.lang.management.ManagementFactory;
+
+/**
+ * Plays agent games through the referee's game loop and checks the mean number of bytes each step of a turn
+ * allocates against a budget, so that streams or linked lists creeping back into the loop fail the build (see
+ * .travis.yml). The budgets are about a third above what the loop allocates today, which leaves room for Java 8,
+ * whose strings take twice the bytes, and for the JIT not removing the same allocations everywhere.
+ */
+class AllocationBudget {
+    enum Step {
+        PREPARE, INPUT, OUTPUT, UPDATE
+    }
+
+    // Bytes per call, in Step order
+    static final long[] BUDGETS = { 64, 5632, 512, 128 };
+    static final int WARM_UP_GAMES = 200;
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final long[] bytes = new long[Step.values().length];
+    private final long[] calls = new long[Step.values().length];
+    private final long threadId = Thread.currentThread().getId();
+    private long overhead;
+    private boolean measuring;
+
+    private long allocated() {
+        return THREADS.getThreadAllocatedBytes(threadId);
+    }
+
+    private long mark() {
+        return allocated();
+    }
+
+    private void record(Step step, long mark) {
+        if (measuring) {
+            bytes[step.ordinal()] += allocated() - mark - overhead;
+            calls[step.ordinal()]++;
+        }
+    }
+
+    /**
+     * A referee counting what its game loop steps allocate.
+     */
+    private final class MeteredReferee extends Referee {
+        MeteredReferee(Referee.Rules rules) throws java.io.IOException {
+            super(null, null, null, rules);
+        }
+
+        @Override
+        protected void prepare(int round) {
+            long mark = mark();
+            super.prepare(round);
+            record(Step.PREPARE, mark);
+        }
+
+        @Override
+        protected String[] getInputForPlayer(int round, int playerIdx) {
+            long mark = mark();
+            String[] input = super.getInputForPlayer(round, playerIdx);
+            record(Step.INPUT, mark);
+            return input;
+        }
+
+        @Override
+        protected void handlePlayerOutput(int frame, int round, int playerIdx, String[] outputs) throws WinException, LostException, InvalidInputException {
+            long mark = mark();
+            try {
+                super.handlePlayerOutput(frame, round, playerIdx, outputs);
+            } finally {
+                record(Step.OUTPUT, mark);
+            }
+        }
+
+        @Override
+        protected void updateGame(int round) throws GameOverException {
+            long mark = mark();
+            try {
+                super.updateGame(round);
+            } finally {
+                record(Step.UPDATE, mark);
+            }
+        }
+    }
+
+    /**
+     * Bots answering from agents, but reading their input like process bots so that the referee builds it.
+     */
+    private static final class ScriptedChannel implements Referee.PlayerChannel {
+        private final Referee referee;
+        private final Agent[] agents;
+
+        ScriptedChannel(Referee referee, Agent[] agents) {
+            this.referee = referee;
+            this.agents = agents;
+        }
+
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void sendInput(int playerIdx, String[] initLines, String[] lines) {
+        }
+
+        @Override
+        public String[] readOutput(int playerIdx, int lineCount, int timeoutMillis) {
+            return new String[] { agents[playerIdx].act(referee, referee.getPlayer(playerIdx), referee.getPlayer(1 - playerIdx)) };
+        }
+
+        @Override
+        public void end(String ranking) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    void play(int games, long seed) throws java.io.IOException {
+        for (int game = 0; game < games; ++game) {
+            Referee referee = new MeteredReferee(Referee.Rules.forLeague(Referee.LEAGUE_LEVEL));
+            Agent[] agents = game % 2 == 0 ? new Agent[] { new GreedyAgent(), new PlannerAgent() } : new Agent[] { new PlannerAgent(), new GreedyAgent() };
+            referee.start(new ScriptedChannel(referee, agents), new String[] { "seed=" + (seed + game / 2) });
+        }
+    }
+
+    /**
+     * @return whether every step allocates within its budget
+     */
+    static boolean check(int games) throws java.io.IOException {
+        if (!THREADS.isThreadAllocatedMemorySupported()) {
+            System.out.println("Allocation budget not checked: this JVM does not count allocated bytes");
+            return true;
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        AllocationBudget budget = new AllocationBudget();
+        budget.play(WARM_UP_GAMES, 1);
+
+        long start = budget.allocated();
+        for (int i = 0; i < 1000; ++i) {
+            budget.allocated();
+        }
+        budget.overhead = (budget.allocated() - start) / 1001;
+
+        budget.measuring = true;
+        budget.play(games, 1);
+
+        boolean ok = true;
+        System.out.println("step      calls   bytes/call  budget");
+        for (Step step : Step.values()) {
+            int s = step.ordinal();
+            double mean = budget.calls[s] == 0 ? 0 : (double) budget.bytes[s] / budget.calls[s];
+            boolean within = mean <= BUDGETS[s];
+            ok &= within;
+            System.out.println(String.format("%-8s %8d %10.1f %8d%s", step.name().toLowerCase(), budget.calls[s], mean, BUDGETS[s], within ? "" : "  OVER BUDGET"));
+        }
+        return ok;
+    }
+}
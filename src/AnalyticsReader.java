@@ -0,0 +1,116 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+class AnalyticsReader implements Closeable {
+    static final class Block {
+        final int size;
+        final long[] seeds;
+        final int[] leagues, rounds;
+        // [column][player][game]
+        final int[][][] columns;
+        // [player][game][round]
+        final int[][][] scoreTimelines;
+
+        Block(int size, long[] seeds, int[] leagues, int[] rounds, int[][][] columns, int[][][] scoreTimelines) {
+            this.size = size;
+            this.seeds = seeds;
+            this.leagues = leagues;
+            this.rounds = rounds;
+            this.columns = columns;
+            this.scoreTimelines = scoreTimelines;
+        }
+
+        int[] column(String name, int player) {
+            int index = Arrays.asList(GameStats.PLAYER_COLUMNS).indexOf(name);
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown column " + name);
+            }
+            return columns[index][player];
+        }
+    }
+
+    private final DataInputStream in;
+
+    public AnalyticsReader(File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    }
+
+    /**
+     * @return the next block, or null at the end of the file
+     */
+    public Block next() throws IOException {
+        int magic;
+        try {
+            magic = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (magic != AnalyticsSink.MAGIC || in.readInt() != AnalyticsSink.VERSION) {
+            throw new IOException("Not an analytics block");
+        }
+        int size = in.readInt();
+        int columnCount = in.readInt();
+        long[] seeds = new long[size];
+        for (int i = 0; i < size; ++i) {
+            seeds[i] = in.readLong();
+        }
+        int[] leagues = readInts(size);
+        int[] rounds = readInts(size);
+        int[][][] columns = new int[columnCount][GameStats.PLAYER_COUNT][];
+        for (int column = 0; column < columnCount; ++column) {
+            for (int p = 0; p < GameStats.PLAYER_COUNT; ++p) {
+                columns[column][p] = readInts(size);
+            }
+        }
+        int[][][] scoreTimelines = new int[GameStats.PLAYER_COUNT][size][];
+        for (int p = 0; p < GameStats.PLAYER_COUNT; ++p) {
+            for (int i = 0; i < size; ++i) {
+                scoreTimelines[p][i] = readInts(rounds[i]);
+            }
+        }
+        return new Block(size, seeds, leagues, rounds, columns, scoreTimelines);
+    }
+
+    private int[] readInts(int count) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count; ++i) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Prints the mean of every column for each player.
+     */
+    static void summarize(File file) throws IOException {
+        long games = 0;
+        double[][] sums = new double[GameStats.PLAYER_COLUMNS.length][GameStats.PLAYER_COUNT];
+        try (AnalyticsReader reader = new AnalyticsReader(file)) {
+            for (Block block = reader.next(); block != null; block = reader.next()) {
+                games += block.size;
+                for (int column = 0; column < block.columns.length && column < sums.length; ++column) {
+                    for (int p = 0; p < GameStats.PLAYER_COUNT; ++p) {
+                        for (int value : block.columns[column][p]) {
+                            sums[column][p] += value;
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println(games + " games");
+        for (int column = 0; column < sums.length; ++column) {
+            System.out.println(String.format("%-14s %10.3f %10.3f", GameStats.PLAYER_COLUMNS[column], sums[column][0] / Math.max(1, games), sums[column][1] / Math.max(1, games)));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes game stats from a background thread in blocks of columns:
+ *
+ * <pre>
+ * int magic, int version, int gameCount, int playerColumnCount
+ * long seed[gameCount], int league[gameCount], int rounds[gameCount]
+ * for each player column, for each player: int value[gameCount]
+ * for each player: int score[sum of rounds], game after game
+ * </pre>
+ */
+class AnalyticsSink implements Closeable {
+    static final int MAGIC = 0x43344C41;
+    static final int VERSION = 1;
+    private static final int BLOCK_SIZE = 1024;
+    private static final GameStats END = new GameStats(0, 0);
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+
+    private final BlockingQueue<GameStats> queue = new ArrayBlockingQueue<>(4 * BLOCK_SIZE);
+    private final DataOutputStream out;
+    private final Thread writer;
+    private volatile IOException failure;
+
+    public AnalyticsSink(File file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+        writer = new Thread(this::write, "analytics-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a finished game, waiting if the writer has fallen behind. Once writing has failed the game is dropped;
+     * close() reports the failure.
+     */
+    public void submit(GameStats stats) {
+        try {
+            while (failure == null && writer.isAlive() && !queue.offer(stats, 100, TimeUnit.MILLISECONDS)) {
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        List<GameStats> block = new ArrayList<>(BLOCK_SIZE);
+        try {
+            boolean done = false;
+            while (!done) {
+                block.add(queue.take());
+                queue.drainTo(block, BLOCK_SIZE - block.size());
+                if (block.get(block.size() - 1) == END) {
+                    block.remove(block.size() - 1);
+                    done = true;
+                }
+                if (!block.isEmpty()) {
+                    writeBlock(block);
+                }
+                block.clear();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queue.clear();
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+    }
+
+    private void writeBlock(List<GameStats> block) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(block.size());
+        out.writeInt(GameStats.PLAYER_COLUMNS.length);
+        for (GameStats stats : block) {
+            out.writeLong(stats.seed);
+        }
+        for (GameStats stats : block) {
+            out.writeInt(stats.league);
+        }
+        for (GameStats stats : block) {
+            out.writeInt(stats.rounds);
+        }
+        for (int column = 0; column < GameStats.PLAYER_COLUMNS.length; ++column) {
+            for (int p = 0; p < GameStats.PLAYER_COUNT; ++p) {
+                for (GameStats stats : block) {
+                    out.writeInt(stats.counters[p][column]);
+                }
+            }
+        }
+        for (int p = 0; p < GameStats.PLAYER_COUNT; ++p) {
+            for (GameStats stats : block) {
+                for (int round = 0; round < stats.rounds; ++round) {
+                    out.writeInt(stats.scoreTimeline[p][round]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(CLOSE_TIMEOUT_SECONDS);
+            while (writer.isAlive() && !queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                if (System.nanoTime() > deadline) {
+                    throw new IOException("The analytics writer did not drain its queue");
+                }
+            }
+            writer.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (writer.isAlive()) {
+            throw new IOException("The analytics writer did not finish");
+        }
+    }
+}
@@ -0,0 +1,478 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Plays batches of games for any number of local clients in one warm referee, on the JDK's HTTP server bound to the
+ * loopback address.
+ *
+ * <pre>
+ * POST /jobs   {"p1": cmd, "p2": cmd, "n": games, "seed": seed, "seeds": [seed...], "league": level, "swap": bool,
+ *              "random": "legacy" or "split"}
+ *              plays n games from seed, seed + 1... or one game per seed of seeds, and answers with one JSON line per
+ *              finished game, {"job", "game", "seed", "p1", "p2"}, then {"job", "done", "p1Wins", "p2Wins", "draws", "failed",
+ *              "marginMean", "marginSd", "histogramBin", "p1Histogram", "p2Histogram"} (see CampaignStats)
+ * GET /jobs/id the totals so far of a job still playing, its "remaining" games and "outcomes", one character per game:
+ *              1 or 2 for the winner, D for a draw, X for a failed game and . for a game not finished
+ * GET /status  {"threads", "queued", "running", "jobs"}, the games waiting for a thread, the games being played and the
+ *              jobs submitted so far
+ * </pre>
+ *
+ * The games of every job share one pool of threads, first come first served. A job whose client disconnects skips
+ * its games still queued.
+ */
+class BatchServer {
+    static final int MAX_BODY = 1 << 20;
+    static final int MAX_GAMES = 10_000_000;
+
+    private final ExecutorService pool;
+    private final int threads;
+    private final boolean reuse;
+    private final AtomicInteger jobs = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final Map<Integer, Job> playing = new ConcurrentHashMap<>();
+    // Bots kept alive between games by each pool thread, by seat and command
+    private final ThreadLocal<Map<String, BotProcess>> bots = ThreadLocal.withInitial(HashMap::new);
+
+    BatchServer(int threads, boolean reuse) {
+        this.threads = threads;
+        this.reuse = reuse;
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * One submitted batch, streaming its results to its client.
+     */
+    private final class Job {
+        final int id;
+        final String p1Command, p2Command;
+        final Referee.Rules rules;
+        final long[] seeds;
+        final boolean swap;
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        final AtomicInteger remaining;
+        final CampaignStats stats;
+        volatile boolean cancelled;
+
+        Job(int id, Map<String, Object> request) {
+            this.id = id;
+            p1Command = string(request, "p1");
+            p2Command = string(request, "p2");
+            Object random = request.getOrDefault("random", "legacy");
+            if (!"legacy".equals(random) && !"split".equals(random)) {
+                throw new IllegalArgumentException("random must be legacy or split");
+            }
+            rules = Referee.Rules.forLeague((int) number(request, "league", Referee.LEAGUE_LEVEL)).withSplitRandom("split".equals(random));
+            swap = Boolean.TRUE.equals(request.get("swap"));
+            Object list = request.get("seeds");
+            if (list instanceof List) {
+                List<?> values = (List<?>) list;
+                seeds = new long[values.size()];
+                for (int i = 0; i < seeds.length; ++i) {
+                    if (!(values.get(i) instanceof Number)) {
+                        throw new IllegalArgumentException("seeds must be numbers");
+                    }
+                    seeds[i] = ((Number) values.get(i)).longValue();
+                }
+            } else {
+                long seed = number(request, "seed", new Random().nextLong());
+                long games = number(request, "n", 1);
+                if (games < 0 || games > MAX_GAMES) {
+                    throw new IllegalArgumentException("n must be between 0 and " + MAX_GAMES);
+                }
+                seeds = new long[(int) games];
+                for (int i = 0; i < seeds.length; ++i) {
+                    seeds[i] = seed + i;
+                }
+            }
+            remaining = new AtomicInteger(seeds.length);
+            stats = new CampaignStats(seeds.length);
+        }
+
+        void play(int game) {
+            queued.decrementAndGet();
+            if (!cancelled) {
+                running.incrementAndGet();
+                boolean swapped = swap && game % 2 == 1;
+                try {
+                    BotProcess p1 = bot("p1", p1Command);
+                    BotProcess p2 = bot("p2", p2Command);
+                    try {
+                        GameResult result = Runner.play(rules, seeds[game], swapped ? new ProcessChannel(p2, p1) : new ProcessChannel(p1, p2), false,
+                                swapped ? new String[] { p2Command, p1Command } : new String[] { p1Command, p2Command });
+                        int p1Score = result.scores[swapped ? 1 : 0];
+                        int p2Score = result.scores[swapped ? 0 : 1];
+                        stats.add(game, p1Score, p2Score);
+                        lines.add("{\"job\":" + id + ",\"game\":" + game + ",\"seed\":" + seeds[game] + ",\"p1\":" + p1Score + ",\"p2\":" + p2Score + "}");
+                    } catch (IOException | RuntimeException e) {
+                        Runner.destroy(p1, p2);
+                        stats.fail(game);
+                        lines.add("{\"job\":" + id + ",\"game\":" + game + ",\"seed\":" + seeds[game] + ",\"error\":" + quote(e.toString()) + "}");
+                    } finally {
+                        if (!reuse) {
+                            Runner.destroy(p1, p2);
+                        }
+                    }
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+            if (remaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        void finish() {
+            lines.add("{\"job\":" + id + ",\"done\":true," + stats.snapshot().toJson() + "}");
+        }
+    }
+
+    private BotProcess bot(String seat, String command) {
+        if (command.startsWith(SparringAgent.PREFIX)) {
+            return null;
+        }
+        if (!reuse) {
+            return new BotProcess(seat, command, false);
+        }
+        return bots.get().computeIfAbsent(seat + " " + command, key -> new BotProcess(seat, command, true));
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "{\"error\":\"POST a job\"}");
+            return;
+        }
+        Job job;
+        try {
+            job = new Job(jobs.incrementAndGet(), parseObject(read(exchange.getRequestBody())));
+            SparringAgent.forCommand(job.p1Command, 0, 0);
+            SparringAgent.forCommand(job.p2Command, 0, 1);
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}");
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        playing.put(job.id, job);
+        queued.addAndGet(job.seeds.length);
+        if (job.seeds.length == 0) {
+            job.finish();
+        }
+        for (int game = 0; game < job.seeds.length; ++game) {
+            int index = game;
+            pool.execute(() -> job.play(index));
+        }
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int sent = 0; sent <= job.seeds.length; ++sent) {
+                String line = job.lines.take();
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (IOException e) {
+            job.cancelled = true;
+        } catch (InterruptedException e) {
+            job.cancelled = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            playing.remove(job.id);
+        }
+    }
+
+    private void progress(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            respond(exchange, 405, "{\"error\":\"GET a job's progress\"}");
+            return;
+        }
+        Job job;
+        try {
+            job = playing.get(Integer.parseInt(exchange.getRequestURI().getPath().substring("/jobs/".length())));
+        } catch (NumberFormatException e) {
+            job = null;
+        }
+        if (job == null) {
+            respond(exchange, 404, "{\"error\":\"No such job playing\"}");
+            return;
+        }
+        StringBuilder outcomes = new StringBuilder(job.seeds.length);
+        for (int game = 0; game < job.seeds.length; ++game) {
+            outcomes.append(".12DX".charAt(job.stats.getOutcome(game)));
+        }
+        respond(exchange, 200, "{\"job\":" + job.id + ",\"remaining\":" + job.remaining.get() + "," + job.stats.snapshot().toJson() + ",\"outcomes\":\"" + outcomes + "\"}");
+    }
+
+    private void status(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, "{\"threads\":" + threads + ",\"queued\":" + queued.get() + ",\"running\":" + running.get() + ",\"jobs\":" + jobs.get() + "}");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+            body.write(buffer, 0, count);
+            if (body.size() > MAX_BODY) {
+                throw new IllegalArgumentException("Job larger than " + MAX_BODY + " bytes");
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String string(Map<String, Object> request, String key) {
+        Object value = request.get(key);
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(key + " must be a bot command");
+        }
+        return (String) value;
+    }
+
+    private static long number(Map<String, Object> request, String key, long defaultValue) {
+        Object value = request.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (!(value instanceof Number)) {
+            throw new IllegalArgumentException(key + " must be a number");
+        }
+        return ((Number) value).longValue();
+    }
+
+    static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Parses the JSON object of a job: strings, integers, booleans, null and arrays of those.
+     */
+    static Map<String, Object> parseObject(String json) {
+        JsonReader reader = new JsonReader(json);
+        Object value = reader.value();
+        reader.skipSpaces();
+        if (!(value instanceof Map) || reader.position < json.length()) {
+            throw new IllegalArgumentException("Expected a single JSON object");
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> object = (Map<String, Object>) value;
+        return object;
+    }
+
+    private static final class JsonReader {
+        final String json;
+        int position;
+
+        JsonReader(String json) {
+            this.json = json;
+        }
+
+        void skipSpaces() {
+            while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+                position++;
+            }
+        }
+
+        char next() {
+            skipSpaces();
+            if (position >= json.length()) {
+                throw new IllegalArgumentException("Unexpected end of JSON");
+            }
+            return json.charAt(position);
+        }
+
+        void expect(char c) {
+            if (next() != c) {
+                throw new IllegalArgumentException("Expected " + c + " at " + position);
+            }
+            position++;
+        }
+
+        Object value() {
+            char c = next();
+            if (c == '{') {
+                position++;
+                Map<String, Object> object = new LinkedHashMap<>();
+                if (next() == '}') {
+                    position++;
+                    return object;
+                }
+                do {
+                    String key = string();
+                    expect(':');
+                    object.put(key, value());
+                } while (separator('}'));
+                return object;
+            }
+            if (c == '[') {
+                position++;
+                List<Object> array = new ArrayList<>();
+                if (next() == ']') {
+                    position++;
+                    return array;
+                }
+                do {
+                    array.add(value());
+                } while (separator(']'));
+                return array;
+            }
+            if (c == '"') {
+                return string();
+            }
+            for (String literal : new String[] { "true", "false", "null" }) {
+                if (json.startsWith(literal, position)) {
+                    position += literal.length();
+                    return literal.equals("null") ? null : Boolean.valueOf(literal);
+                }
+            }
+            int start = position;
+            if (c == '-') {
+                position++;
+            }
+            while (position < json.length() && Character.isDigit(json.charAt(position))) {
+                position++;
+            }
+            try {
+                return Long.valueOf(json.substring(start, position));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected an integer at " + start);
+            }
+        }
+
+        /**
+         * @return whether another element follows
+         */
+        boolean separator(char close) {
+            char c = next();
+            position++;
+            if (c == ',') {
+                return true;
+            }
+            if (c != close) {
+                throw new IllegalArgumentException("Expected , or " + close + " at " + (position - 1));
+            }
+            return false;
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder text = new StringBuilder();
+            while (true) {
+                if (position >= json.length()) {
+                    throw new IllegalArgumentException("Unterminated string");
+                }
+                char c = json.charAt(position++);
+                if (c == '"') {
+                    return text.toString();
+                }
+                if (c == '\\') {
+                    if (position >= json.length()) {
+                        throw new IllegalArgumentException("Unterminated string");
+                    }
+                    char escaped = json.charAt(position++);
+                    switch (escaped) {
+                        case 'n':
+                            text.append('\n');
+                            break;
+                        case 't':
+                            text.append('\t');
+                            break;
+                        case 'r':
+                            text.append('\r');
+                            break;
+                        case 'b':
+                            text.append('\b');
+                            break;
+                        case 'f':
+                            text.append('\f');
+                            break;
+                        case 'u':
+                            if (position + 4 > json.length()) {
+                                throw new IllegalArgumentException("Bad \\u escape");
+                            }
+                            text.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                            position += 4;
+                            break;
+                        default:
+                            text.append(escaped);
+                    }
+                } else {
+                    text.append(c);
+                }
+            }
+        }
+    }
+
+    static void serve(Map<String, String> options) throws IOException {
+        Runner.cacheOption(options);
+        Runner.analyticsOption(options);
+        Runner.archiveOption(options);
+        BatchServer batches = new BatchServer(Runner.intOption(options, "t", Runtime.getRuntime().availableProcessors()), options.containsKey("reuse"));
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), Runner.intOption(options, "port", 8080)), 0);
+        server.createContext("/jobs", exchange -> {
+            try {
+                if (exchange.getRequestURI().getPath().startsWith("/jobs/")) {
+                    batches.progress(exchange);
+                } else {
+                    batches.submit(exchange);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        server.createContext("/status", exchange -> {
+            try {
+                batches.status(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+        // Each streaming job holds a connection thread until its last game
+        server.setExecutor(Executors.newCachedThreadPool());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Runner.closeSinks();
+            } catch (IOException e) {
+                System.err.println("Failed to close: " + e);
+            }
+        }));
+        server.start();
+        System.out.println("Serving jobs on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/jobs");
+    }
+}
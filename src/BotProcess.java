@@ -0,0 +1,144 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bot started by the referee itself. Reusable bots stay alive between games: after a game the bot receives a
+ * single {@value #RESET} line and must answer with any line before it gets the next game's init input.
+ */
+class BotProcess {
+    static final String RESET = "###Reset";
+    private static final String EOF = new String("EOF");
+    private static final File NULL_FILE = new File(System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null");
+
+    private final String name;
+    private final String[] command;
+    private final boolean reusable;
+    private Process process;
+    private BufferedWriter writer;
+    private BlockingQueue<String> lines;
+    private long sentAt;
+    private boolean dirty;
+
+    public BotProcess(String name, String commandLine, boolean reusable) {
+        this.name = name;
+        this.command = commandLine.trim().split("\\s+");
+        this.reusable = reusable;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void ensureStarted() throws IOException {
+        if (process != null && process.isAlive() && !dirty) {
+            return;
+        }
+        destroy();
+        process = new ProcessBuilder(command).redirectError(NULL_FILE).start();
+        writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8), 1 << 14);
+        lines = new LinkedBlockingQueue<>();
+        dirty = false;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8), 1 << 14);
+        BlockingQueue<String> queue = lines;
+        startReader(() -> {
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    queue.add(line);
+                }
+            } catch (IOException e) {
+            }
+            queue.add(EOF);
+        }, name + "-reader");
+    }
+
+    /**
+     * Starts the reader on a virtual thread when the running JDK has them, and on a daemon thread otherwise.
+     */
+    private static void startReader(Runnable reader, String threadName) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class.forName("java.lang.Thread$Builder").getMethod("start", Runnable.class).invoke(builder, reader);
+            return;
+        } catch (ReflectiveOperationException e) {
+        }
+        Thread thread = new Thread(reader, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void send(String[] initLines, String[] input) {
+        try {
+            if (initLines != null) {
+                for (String line : initLines) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+            for (String line : input) {
+                writer.write(line);
+                writer.newLine();
+            }
+            writer.flush();
+        } catch (IOException e) {
+            dirty = true;
+        }
+        sentAt = System.nanoTime();
+    }
+
+    /**
+     * @return the next line written by the bot, or null if it did not arrive within timeoutMillis of the last input
+     */
+    public String readLine(int timeoutMillis) {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis) - (System.nanoTime() - sentAt);
+        String line;
+        try {
+            line = lines.poll(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            line = null;
+        }
+        if (line == null || line == EOF) {
+            dirty = true;
+            return null;
+        }
+        return line;
+    }
+
+    /**
+     * Gets the bot ready for another game, killing it if it cannot be reused.
+     */
+    public void endGame(int timeoutMillis) {
+        if (!reusable || dirty || process == null || !process.isAlive()) {
+            destroy();
+            return;
+        }
+        lines.clear();
+        send(null, new String[] { RESET });
+        if (readLine(timeoutMillis) == null) {
+            destroy();
+        }
+    }
+
+    public void destroy() {
+        if (process != null) {
+            process.destroyForcibly();
+            process = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + Arrays.toString(command);
+    }
+}
@@ -0,0 +1,221 @@
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the games a campaign has finished, so that a campaign restarted after a crash only plays
+ * the games it is missing:
+ *
+ * <pre>
+ * int magic, long seed, int length, the campaign description in UTF-8
+ * one {@value #RECORD_SIZE} byte record per game: int game, long seed, byte swapped, byte winner (2 for a draw), int score0, int score1, int crc32
+ * </pre>
+ *
+ * Records are written by a background thread and synced in groups of up to {@value #BATCH_SIZE} games or every
+ * {@value #MAX_BATCH_DELAY_MILLIS} ms, whichever comes first. A crash loses at most the last unsynced group, which
+ * is simply played again; a torn record is detected by its checksum and cut off when the journal is opened.
+ */
+class CampaignJournal implements Closeable {
+    static final int MAGIC = 0x43344C4A;
+    static final int RECORD_SIZE = 4 + 8 + 1 + 1 + 4 + 4 + 4;
+    static final int BATCH_SIZE = 256;
+    static final long MAX_BATCH_DELAY_MILLIS = 50;
+
+    static final class Entry {
+        final int game;
+        final boolean swapped;
+        final GameResult result;
+
+        Entry(int game, boolean swapped, GameResult result) {
+            this.game = game;
+            this.swapped = swapped;
+            this.result = result;
+        }
+    }
+
+    private static final Entry END = new Entry(-1, false, null);
+
+    private final FileChannel channel;
+    private final List<Entry> completed = new ArrayList<>();
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile IOException failure;
+
+    /**
+     * Opens the journal of a campaign, creating it if needed.
+     *
+     * @throws IOException if the journal was started by another campaign
+     */
+    public CampaignJournal(File file, long seed, String campaign) throws IOException {
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        byte[] description = campaign.getBytes(StandardCharsets.UTF_8);
+        int headerSize = 4 + 8 + 4 + description.length;
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(headerSize);
+            header.putInt(MAGIC).putLong(seed).putInt(description.length).put(description).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.force(true);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(headerSize);
+            channel.read(header, 0);
+            byte[] stored = new byte[description.length];
+            for (int i = 0; i < stored.length; ++i) {
+                stored[i] = header.get(16 + i);
+            }
+            if (header.getInt(0) != MAGIC || header.getLong(4) != seed || header.getInt(12) != description.length || !campaign.equals(new String(stored, StandardCharsets.UTF_8))) {
+                channel.close();
+                throw new IOException(file + " is the journal of another campaign");
+            }
+        }
+        load(headerSize);
+
+        writer = new Thread(this::write, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * @return the seed of the campaign journaled in file, or null if there is no journal yet
+     */
+    static Long readSeed(File file) throws IOException {
+        if (!file.exists() || file.length() < 12) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a campaign journal");
+            }
+            return in.readLong();
+        }
+    }
+
+    private void load(int headerSize) throws IOException {
+        long end = headerSize;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096);
+        CRC32 crc = new CRC32();
+        channel.position(headerSize);
+        boolean torn = false;
+        while (!torn) {
+            buffer.clear();
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            buffer.flip();
+            if (buffer.remaining() < RECORD_SIZE) {
+                break;
+            }
+            while (buffer.remaining() >= RECORD_SIZE) {
+                crc.reset();
+                for (int i = 0; i < RECORD_SIZE - 4; ++i) {
+                    crc.update(buffer.get(buffer.position() + i));
+                }
+                int game = buffer.getInt();
+                long seed = buffer.getLong();
+                boolean swapped = buffer.get() != 0;
+                buffer.get();
+                int[] scores = { buffer.getInt(), buffer.getInt() };
+                if (buffer.getInt() != (int) crc.getValue()) {
+                    torn = true;
+                    break;
+                }
+                completed.add(new Entry(game, swapped, new GameResult(seed, scores)));
+                end += RECORD_SIZE;
+            }
+            if (buffer.hasRemaining()) {
+                torn = true;
+            }
+        }
+        channel.truncate(end);
+        channel.position(end);
+    }
+
+    /**
+     * @return the games finished before the journal was opened
+     */
+    public List<Entry> getCompleted() {
+        return completed;
+    }
+
+    public void record(int game, boolean swapped, GameResult result) {
+        queue.add(new Entry(game, swapped, result));
+    }
+
+    private void write() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * BATCH_SIZE);
+        CRC32 crc = new CRC32();
+        try {
+            boolean done = false;
+            while (!done) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_DELAY_MILLIS);
+                while (batch.size() < BATCH_SIZE && batch.get(batch.size() - 1) != END) {
+                    if (queue.drainTo(batch, BATCH_SIZE - batch.size()) == 0) {
+                        Entry entry = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (entry == null) {
+                            break;
+                        }
+                        batch.add(entry);
+                    }
+                }
+                buffer.clear();
+                for (Entry entry : batch) {
+                    if (entry == END) {
+                        done = true;
+                        continue;
+                    }
+                    int start = buffer.position();
+                    buffer.putInt(entry.game).putLong(entry.result.seed).put((byte) (entry.swapped ? 1 : 0));
+                    int winner = entry.result.getWinner();
+                    buffer.put((byte) (winner < 0 ? 2 : winner)).putInt(entry.result.scores[0]).putInt(entry.result.scores[1]);
+                    crc.reset();
+                    for (int i = start; i < buffer.position(); ++i) {
+                        crc.update(buffer.get(i));
+                    }
+                    buffer.putInt((int) crc.getValue());
+                }
+                buffer.flip();
+                if (buffer.hasRemaining()) {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                }
+                batch.clear();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Syncs every recorded game and closes the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        queue.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live statistics of a campaign, folded in by the threads playing its games and readable at any time without
+ * stopping them: win, draw and loss counts, the mean and variance of p1's score margin and of each side's score, a
+ * histogram of each side's scores and the outcome of every game.
+ *
+ * The counters are LongAdders. The moments are kept by Welford's method in a few stripes, each an immutable value
+ * swapped in by compare and set, and the stripes are merged when read. A snapshot is not atomic across counters,
+ * so while games finish its counts may disagree by the games being added.
+ */
+class CampaignStats {
+    static final int OUTCOME_NONE = 0, OUTCOME_P1 = 1, OUTCOME_P2 = 2, OUTCOME_DRAW = 3, OUTCOME_FAILED = 4;
+    static final int HISTOGRAM_BIN = 10;
+    // The last bin counts every score from HISTOGRAM_BIN * (HISTOGRAM_BINS - 1) up
+    static final int HISTOGRAM_BINS = 31;
+
+    private static final int OUTCOME_BITS = 4;
+    private static final int OUTCOMES_PER_WORD = Long.SIZE / OUTCOME_BITS;
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+    // The moments of a stripe, at stripe * MOMENT_KINDS + kind: p1's margin, then each side's score
+    private static final int MARGIN = 0, SCORE = 1, MOMENT_KINDS = 3;
+
+    /**
+     * Count, mean and sum of squared deviations of the margins added to one stripe.
+     */
+    static final class Moments {
+        static final Moments EMPTY = new Moments(0, 0, 0);
+
+        final long count;
+        final double mean;
+        final double m2;
+
+        Moments(long count, double mean, double m2) {
+            this.count = count;
+            this.mean = mean;
+            this.m2 = m2;
+        }
+
+        Moments plus(double value) {
+            long n = count + 1;
+            double delta = value - mean;
+            double newMean = mean + delta / n;
+            return new Moments(n, newMean, m2 + delta * (value - newMean));
+        }
+
+        Moments merge(Moments other) {
+            if (other.count == 0) {
+                return this;
+            } else if (count == 0) {
+                return other;
+            }
+            long n = count + other.count;
+            double delta = other.mean - mean;
+            return new Moments(n, mean + delta * other.count / n, m2 + other.m2 + delta * delta * count * other.count / n);
+        }
+
+        double variance() {
+            return count < 2 ? 0 : m2 / (count - 1);
+        }
+    }
+
+    /**
+     * What the campaign looked like when snapshot() was called.
+     */
+    static final class Summary {
+        final long p1Wins, p2Wins, draws, failed;
+        final Moments margin;
+        // By player
+        final Moments[] scores;
+        // By player, then by score / HISTOGRAM_BIN
+        final long[][] histograms;
+
+        Summary(long p1Wins, long p2Wins, long draws, long failed, Moments margin, Moments[] scores, long[][] histograms) {
+            this.p1Wins = p1Wins;
+            this.p2Wins = p2Wins;
+            this.draws = draws;
+            this.failed = failed;
+            this.margin = margin;
+            this.scores = scores;
+            this.histograms = histograms;
+        }
+
+        long played() {
+            return p1Wins + p2Wins + draws;
+        }
+
+        /**
+         * @return p1's share of the points, a draw counting half
+         */
+        double p1Rate() {
+            long played = played();
+            return played == 0 ? 0 : (p1Wins + 0.5 * draws) / played;
+        }
+
+        /**
+         * @return half the width of the 95% confidence interval of p1Rate()
+         */
+        double p1RateError() {
+            long played = played();
+            double p = p1Rate();
+            return played == 0 ? 0 : 1.96 * Math.sqrt(p * (1 - p) / played);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d games: p1 %.2f%% +- %.2f, margin %.2f sd %.2f", played(), 100 * p1Rate(), 100 * p1RateError(), margin.mean,
+                    Math.sqrt(margin.variance()));
+        }
+
+        String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("\"p1Wins\":").append(p1Wins).append(",\"p2Wins\":").append(p2Wins).append(",\"draws\":").append(draws).append(",\"failed\":").append(failed);
+            json.append(",\"marginMean\":").append(margin.mean).append(",\"marginSd\":").append(Math.sqrt(margin.variance()));
+            json.append(",\"histogramBin\":").append(HISTOGRAM_BIN);
+            for (int player = 0; player < 2; ++player) {
+                json.append(",\"p").append(player + 1).append("Histogram\":[");
+                for (int bin = 0; bin < HISTOGRAM_BINS; ++bin) {
+                    json.append(bin > 0 ? "," : "").append(histograms[player][bin]);
+                }
+                json.append(']');
+            }
+            return json.toString();
+        }
+    }
+
+    private final LongAdder p1Wins = new LongAdder();
+    private final LongAdder p2Wins = new LongAdder();
+    private final LongAdder draws = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder[][] histograms = new LongAdder[2][HISTOGRAM_BINS];
+    private final AtomicReferenceArray<Moments> moments = new AtomicReferenceArray<>(STRIPES * MOMENT_KINDS);
+    private final AtomicLongArray outcomes;
+    private final int games;
+
+    /**
+     * @param games the number of games whose outcome is kept, by game index
+     */
+    CampaignStats(int games) {
+        this.games = games;
+        outcomes = new AtomicLongArray((games + OUTCOMES_PER_WORD - 1) / OUTCOMES_PER_WORD);
+        for (LongAdder[] histogram : histograms) {
+            for (int bin = 0; bin < HISTOGRAM_BINS; ++bin) {
+                histogram[bin] = new LongAdder();
+            }
+        }
+        for (int i = 0; i < moments.length(); ++i) {
+            moments.set(i, Moments.EMPTY);
+        }
+    }
+
+    /**
+     * Adds a finished game, the scores given from p1's and p2's side.
+     */
+    void add(int game, int p1Score, int p2Score) {
+        int outcome = p1Score > p2Score ? OUTCOME_P1 : p1Score < p2Score ? OUTCOME_P2 : OUTCOME_DRAW;
+        (outcome == OUTCOME_P1 ? p1Wins : outcome == OUTCOME_P2 ? p2Wins : draws).increment();
+        histograms[0][bin(p1Score)].increment();
+        histograms[1][bin(p2Score)].increment();
+
+        int stripe = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * MOMENT_KINDS;
+        addMoment(stripe + MARGIN, p1Score - p2Score);
+        addMoment(stripe + SCORE, p1Score);
+        addMoment(stripe + SCORE + 1, p2Score);
+        setOutcome(game, outcome);
+    }
+
+    private void addMoment(int index, double value) {
+        Moments current;
+        do {
+            current = moments.get(index);
+        } while (!moments.compareAndSet(index, current, current.plus(value)));
+    }
+
+    void fail(int game) {
+        failed.increment();
+        setOutcome(game, OUTCOME_FAILED);
+    }
+
+    private static int bin(int score) {
+        return Math.min(HISTOGRAM_BINS - 1, Math.max(0, score) / HISTOGRAM_BIN);
+    }
+
+    private void setOutcome(int game, int outcome) {
+        if (game < 0 || game >= games) {
+            return;
+        }
+        int word = game / OUTCOMES_PER_WORD;
+        int shift = game % OUTCOMES_PER_WORD * OUTCOME_BITS;
+        long mask = ((1L << OUTCOME_BITS) - 1) << shift;
+        long current;
+        do {
+            current = outcomes.get(word);
+        } while (!outcomes.compareAndSet(word, current, current & ~mask | (long) outcome << shift));
+    }
+
+    /**
+     * @return one of the OUTCOME_ constants
+     */
+    int getOutcome(int game) {
+        return (int) (outcomes.get(game / OUTCOMES_PER_WORD) >>> (game % OUTCOMES_PER_WORD * OUTCOME_BITS) & ((1 << OUTCOME_BITS) - 1));
+    }
+
+    Summary snapshot() {
+        Moments[] merged = { Moments.EMPTY, Moments.EMPTY, Moments.EMPTY };
+        for (int i = 0; i < moments.length(); ++i) {
+            merged[i % MOMENT_KINDS] = merged[i % MOMENT_KINDS].merge(moments.get(i));
+        }
+        long[][] counts = new long[2][HISTOGRAM_BINS];
+        for (int player = 0; player < 2; ++player) {
+            for (int bin = 0; bin < HISTOGRAM_BINS; ++bin) {
+                counts[player][bin] = histograms[player][bin].sum();
+            }
+        }
+        return new Summary(p1Wins.sum(), p2Wins.sum(), draws.sum(), failed.sum(), merged[MARGIN], new Moments[] { merged[SCORE], merged[SCORE + 1] }, counts);
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.List;
+
+class FrameDeltaDecoder {
+    private final int playerCount;
+    private String[] previous;
+
+    public FrameDeltaDecoder(int playerCount) {
+        this.playerCount = playerCount;
+    }
+
+    public static List<String[]> decodeStream(List<String> stream, int playerCount) {
+        FrameDeltaDecoder decoder = new FrameDeltaDecoder(playerCount);
+        List<String[]> frames = new ArrayList<>();
+        for (int i = 0; i < stream.size();) {
+            int count = Integer.parseInt(stream.get(i++));
+            frames.add(decoder.decode(stream.subList(i, i + count).toArray(new String[count])));
+            i += count;
+        }
+        return frames;
+    }
+
+    public String[] decode(String[] encoded) {
+        String[] frame = new String[encoded.length - 1];
+        if (FrameDeltaEncoder.KEY.equals(encoded[0])) {
+            System.arraycopy(encoded, 1, frame, 0, frame.length);
+        } else if (previous == null) {
+            throw new IllegalStateException("Delta frame before the first key frame");
+        } else {
+            for (int i = 0; i < playerCount; ++i) {
+                frame[i] = decodePlayer(previous[i], encoded[i + 1]);
+            }
+            frame[playerCount] = FrameDeltaEncoder.UNCHANGED.equals(encoded[playerCount + 1]) ? previous[playerCount] : encoded[playerCount + 1];
+            System.arraycopy(encoded, playerCount + 2, frame, playerCount + 1, frame.length - playerCount - 1);
+        }
+        previous = frame;
+        return frame;
+    }
+
+    private static String decodePlayer(String previous, String delta) {
+        if (FrameDeltaEncoder.UNCHANGED.equals(delta)) {
+            return previous;
+        }
+        int previousSplit = previous.indexOf(';');
+        List<String> fields = new ArrayList<>();
+        for (String field : previous.substring(0, previousSplit).split(" ")) {
+            fields.add(field);
+        }
+        String message = previous.substring(previousSplit);
+
+        int deltaSplit = delta.indexOf(';');
+        String changes = deltaSplit < 0 ? delta : delta.substring(0, deltaSplit);
+        if (deltaSplit >= 0) {
+            message = delta.substring(deltaSplit);
+        }
+        for (String change : changes.trim().split(" ")) {
+            if (change.isEmpty()) {
+                continue;
+            }
+            int colon = change.indexOf(':');
+            int index = Integer.parseInt(change.substring(0, colon));
+            while (fields.size() <= index) {
+                fields.add("");
+            }
+            fields.set(index, change.substring(colon + 1));
+        }
+        return String.join(" ", fields) + " " + message;
+    }
+}
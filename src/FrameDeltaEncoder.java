@@ -0,0 +1,88 @@
+import java.util.List;
+
+/**
+ * Encodes the frames of getFrameDataForView as a key frame every keyFrameInterval frames and deltas in between.
+ *
+ * <pre>
+ * KEY
+ * (the full frame)
+ *
+ * DELTA
+ * one line per player: "=" if unchanged, else "index:value" for every changed field, then ";message" if it changed
+ * the molecule line, or "=" if unchanged
+ * the event count and events, as in the full frame
+ * </pre>
+ *
+ * In a stream, each encoded frame is preceded by a line holding its number of lines.
+ */
+class FrameDeltaEncoder {
+    static final String KEY = "KEY";
+    static final String DELTA = "DELTA";
+    static final String UNCHANGED = "=";
+
+    private final int playerCount;
+    private final int keyFrameInterval;
+    private String[] previous;
+    private int framesSinceKey;
+
+    public FrameDeltaEncoder(int playerCount, int keyFrameInterval) {
+        this.playerCount = playerCount;
+        this.keyFrameInterval = keyFrameInterval;
+    }
+
+    public void encodeTo(String[] frame, List<String> stream) {
+        String[] encoded = encode(frame);
+        stream.add(String.valueOf(encoded.length));
+        for (String line : encoded) {
+            stream.add(line);
+        }
+    }
+
+    public String[] encode(String[] frame) {
+        String[] previous = this.previous;
+        this.previous = frame;
+        if (previous == null || ++framesSinceKey >= keyFrameInterval) {
+            framesSinceKey = 0;
+            String[] encoded = new String[frame.length + 1];
+            encoded[0] = KEY;
+            System.arraycopy(frame, 0, encoded, 1, frame.length);
+            return encoded;
+        }
+
+        String[] encoded = new String[frame.length + 1];
+        encoded[0] = DELTA;
+        for (int i = 0; i < playerCount; ++i) {
+            encoded[i + 1] = encodePlayer(previous[i], frame[i]);
+        }
+        encoded[playerCount + 1] = frame[playerCount].equals(previous[playerCount]) ? UNCHANGED : frame[playerCount];
+        System.arraycopy(frame, playerCount + 1, encoded, playerCount + 2, frame.length - playerCount - 1);
+        return encoded;
+    }
+
+    private static String encodePlayer(String previous, String current) {
+        if (current.equals(previous)) {
+            return UNCHANGED;
+        }
+        int previousSplit = previous.indexOf(';');
+        int currentSplit = current.indexOf(';');
+        String[] before = previous.substring(0, previousSplit).split(" ");
+        String[] after = current.substring(0, currentSplit).split(" ");
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < after.length; ++i) {
+            if (i >= before.length || !after[i].equals(before[i])) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(i).append(':').append(after[i]);
+            }
+        }
+        if (!current.substring(currentSplit).equals(previous.substring(previousSplit))) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(current, currentSplit, current.length());
+        }
+        return sb.toString();
+    }
+}
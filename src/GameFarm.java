@@ -0,0 +1,405 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads the games of a campaign over several referee JVMs on this host. The coordinator listens on a loopback port
+ * and hands out batches of games; every worker plays its batches the way run does and streams each result back as
+ * soon as the game ends. The unfinished games of a worker whose connection drops go back to the other workers.
+ *
+ * <pre>
+ * worker      HELLO threads
+ * coordinator CAMPAIGN p1 \t p2 \t league \t seed \t swap \t pipelined \t splitRandom
+ * coordinator BATCH first count          any number of times
+ * worker      RESULT game score0 score1  or FAILED game, once per game of a batch, scores in seat order
+ * coordinator DONE                       once every game of the campaign is finished
+ * </pre>
+ */
+class GameFarm {
+    static final int DEFAULT_BATCH_SIZE = 8;
+    // Batches in flight per worker thread, so that a worker never waits for its next batch
+    static final int BATCHES_PER_THREAD = 2;
+    static final int MAX_RESTARTS = 3;
+    // How long the coordinator waits for a worker to connect when it starts none itself
+    static final int DEFAULT_WAIT_SECONDS = 60;
+
+    private final String campaign;
+    private final int games;
+    private final long seed;
+    private final boolean swap;
+    private final Deque<int[]> pending = new ArrayDeque<>();
+    private final List<Worker> workers = new ArrayList<>();
+    private final BitSet finished = new BitSet();
+    private final CampaignStats stats;
+    private int finishedCount;
+    private long idleSince = System.nanoTime();
+    private volatile boolean done;
+
+    GameFarm(String campaign, int games, long seed, int batchSize, boolean swap) {
+        this.campaign = campaign;
+        this.games = games;
+        this.seed = seed;
+        this.swap = swap;
+        stats = new CampaignStats(games);
+        for (int first = 0; first < games; first += batchSize) {
+            pending.add(new int[] { first, Math.min(batchSize, games - first) });
+        }
+    }
+
+    /**
+     * The coordinator's end of the connection to a worker.
+     */
+    private final class Worker {
+        final Socket socket;
+        final BufferedWriter writer;
+        final List<int[]> assigned = new ArrayList<>();
+        int window;
+
+        Worker(Socket socket) throws IOException {
+            this.socket = socket;
+            writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+
+        // Called with the farm locked
+        void fill() throws IOException {
+            while (assigned.size() < window && !pending.isEmpty()) {
+                int[] batch = pending.poll();
+                assigned.add(batch);
+                writer.write("BATCH " + batch[0] + " " + batch[1] + "\n");
+            }
+            writer.flush();
+        }
+
+        // Called with the farm locked
+        void finish(int game) throws IOException {
+            for (int i = 0; i < assigned.size(); ++i) {
+                int[] batch = assigned.get(i);
+                if (game >= batch[0] && game < batch[0] + batch[1]) {
+                    int next = finished.nextClearBit(batch[0]);
+                    if (next >= batch[0] + batch[1]) {
+                        assigned.remove(i);
+                        fill();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        Worker worker = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            worker = new Worker(socket);
+            String hello = reader.readLine();
+            if (hello == null || !hello.startsWith("HELLO ")) {
+                throw new IOException("Expected HELLO, got " + hello);
+            }
+            synchronized (this) {
+                worker.window = Math.max(1, Integer.parseInt(hello.substring(6).trim()) * BATCHES_PER_THREAD);
+                worker.writer.write(campaign + "\n");
+                if (done) {
+                    worker.writer.write("DONE\n");
+                    worker.writer.flush();
+                    return;
+                }
+                workers.add(worker);
+                worker.fill();
+            }
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.split(" ");
+                int game = Integer.parseInt(fields[1]);
+                synchronized (this) {
+                    if (fields[0].equals("RESULT")) {
+                        record(game, new int[] { Integer.parseInt(fields[2]), Integer.parseInt(fields[3]) });
+                    } else {
+                        record(game, null);
+                    }
+                    worker.finish(game);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (!done) {
+                System.err.println("Worker " + socket.getRemoteSocketAddress() + " failed: " + e);
+            }
+        } finally {
+            if (worker != null) {
+                release(worker);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    // Called with the farm locked
+    private void record(int game, int[] scores) {
+        if (game < 0 || game >= games || finished.get(game)) {
+            return;
+        }
+        finished.set(game);
+        finishedCount++;
+        if (scores == null) {
+            System.err.println("Game " + game + " failed");
+            stats.fail(game);
+        } else {
+            boolean swapped = swap && game % 2 == 1;
+            int p1Score = scores[swapped ? 1 : 0];
+            int p2Score = scores[swapped ? 0 : 1];
+            stats.add(game, p1Score, p2Score);
+            System.out.println("Game " + game + " seed=" + (seed + game) + " p1=" + p1Score + " p2=" + p2Score);
+        }
+        if (finishedCount == games) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Gives the unfinished games of a lost worker to the others.
+     */
+    private synchronized void release(Worker worker) {
+        if (!workers.remove(worker)) {
+            return;
+        }
+        if (workers.isEmpty()) {
+            idleSince = System.nanoTime();
+        }
+        for (int i = worker.assigned.size() - 1; i >= 0; --i) {
+            int[] batch = worker.assigned.get(i);
+            int end = batch[0] + batch[1];
+            for (int first = finished.nextClearBit(batch[0]); first < end; ) {
+                int last = Math.min(finished.nextSetBit(first) < 0 ? end : finished.nextSetBit(first), end);
+                pending.addFirst(new int[] { first, last - first });
+                first = finished.nextClearBit(last);
+            }
+        }
+        worker.assigned.clear();
+        for (Worker other : new ArrayList<>(workers)) {
+            try {
+                other.fill();
+            } catch (IOException e) {
+                // Its own connection thread notices
+            }
+        }
+    }
+
+    /**
+     * @return whether every game is finished
+     */
+    private synchronized boolean await(long millis) throws InterruptedException {
+        if (finishedCount < games) {
+            wait(millis);
+        }
+        return finishedCount == games;
+    }
+
+    /**
+     * @return how long no worker has been connected, or -1 while one is
+     */
+    private synchronized long idleNanos() {
+        return workers.isEmpty() ? System.nanoTime() - idleSince : -1;
+    }
+
+    /**
+     * Counts every unfinished game as failed.
+     *
+     * @return the number of games given up
+     */
+    private synchronized int abandon() {
+        int count = 0;
+        for (int game = finished.nextClearBit(0); game < games; game = finished.nextClearBit(game + 1)) {
+            finished.set(game);
+            finishedCount++;
+            stats.fail(game);
+            count++;
+        }
+        pending.clear();
+        return count;
+    }
+
+    private synchronized void close() {
+        done = true;
+        for (Worker worker : workers) {
+            try {
+                worker.writer.write("DONE\n");
+                worker.writer.flush();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    static void coordinate(Map<String, String> options) throws IOException, InterruptedException {
+        if (!options.containsKey("p1") || !options.containsKey("p2")) {
+            System.err.println(Runner.USAGE);
+            System.exit(1);
+        }
+        Referee.Rules rules = Runner.rulesOption(options);
+        int games = Runner.intOption(options, "n", 1);
+        int spawn = Runner.intOption(options, "workers", 0);
+        long wait = TimeUnit.SECONDS.toNanos(Runner.intOption(options, "wait", DEFAULT_WAIT_SECONDS));
+        boolean swap = options.containsKey("s");
+        long seed = Runner.seedOption(options);
+        String campaign = String.join("\t", "CAMPAIGN " + options.get("p1"), options.get("p2"), String.valueOf(rules.leagueLevel), String.valueOf(seed), String.valueOf(swap),
+                String.valueOf(options.containsKey("pipeline")), String.valueOf(rules.splitRandom));
+        GameFarm farm = new GameFarm(campaign, games, seed, Runner.intOption(options, "batch", DEFAULT_BATCH_SIZE), swap);
+
+        ServerSocket server = new ServerSocket(Runner.intOption(options, "port", 0), 50, InetAddress.getLoopbackAddress());
+        System.out.println("Coordinator listening on port " + server.getLocalPort());
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread connection = new Thread(() -> farm.serve(socket), "farm-" + socket.getPort());
+                    connection.setDaemon(true);
+                    connection.start();
+                } catch (IOException e) {
+                    // Closed
+                }
+            }
+        }, "farm-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Runner.class.getName());
+        command.add("work");
+        command.add("-port");
+        command.add(String.valueOf(server.getLocalPort()));
+        command.add("-t");
+        command.add(String.valueOf(Runner.intOption(options, "t", 1)));
+        if (options.containsKey("reuse")) {
+            command.add("-reuse");
+        }
+        Process[] processes = new Process[spawn];
+        int[] restarts = new int[spawn];
+        for (int i = 0; i < spawn; ++i) {
+            processes[i] = new ProcessBuilder(command).inheritIO().start();
+        }
+        while (!farm.await(1000)) {
+            boolean running = false;
+            for (int i = 0; i < spawn; ++i) {
+                if (!processes[i].isAlive() && restarts[i] < MAX_RESTARTS) {
+                    restarts[i]++;
+                    System.err.println("Restarting worker " + i + " (exit code " + processes[i].exitValue() + ")");
+                    processes[i] = new ProcessBuilder(command).inheritIO().start();
+                }
+                running |= processes[i].isAlive();
+            }
+            // Started workers that are all gone for good end the campaign at once, otherwise allow time to connect
+            if (!running && farm.idleNanos() > (spawn > 0 ? 0 : wait)) {
+                System.err.println("No worker left, " + farm.abandon() + " games unfinished");
+                break;
+            }
+        }
+        farm.close();
+        server.close();
+        for (Process process : processes) {
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+
+        Runner.printSummary(farm.stats.snapshot());
+    }
+
+    static void work(Map<String, String> options) throws IOException, InterruptedException {
+        if (!options.containsKey("port")) {
+            System.err.println(Runner.USAGE);
+            System.exit(1);
+        }
+        int threads = Runner.intOption(options, "t", 1);
+        boolean reuse = options.containsKey("reuse");
+        Runner.cacheOption(options);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Runner.intOption(options, "port", 0))) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            writer.write("HELLO " + threads + "\n");
+            writer.flush();
+            String header = reader.readLine();
+            if (header == null || !header.startsWith("CAMPAIGN ")) {
+                throw new IOException("Expected CAMPAIGN, got " + header);
+            }
+            String[] campaign = header.substring(9).split("\t");
+            String p1Command = campaign[0];
+            String p2Command = campaign[1];
+            Referee.Rules rules = Referee.Rules.forLeague(Integer.parseInt(campaign[2])).withSplitRandom(Boolean.parseBoolean(campaign[6]));
+            long seed = Long.parseLong(campaign[3]);
+            boolean swap = Boolean.parseBoolean(campaign[4]);
+            boolean pipelined = Boolean.parseBoolean(campaign[5]);
+
+            BlockingQueue<Integer> queue = new LinkedBlockingQueue<>();
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            for (int t = 0; t < threads; ++t) {
+                pool.execute(() -> {
+                    BotProcess p1 = p1Command.startsWith(SparringAgent.PREFIX) ? null : new BotProcess("p1", p1Command, reuse);
+                    BotProcess p2 = p2Command.startsWith(SparringAgent.PREFIX) ? null : new BotProcess("p2", p2Command, reuse);
+                    try {
+                        for (int game = queue.take(); game >= 0; game = queue.take()) {
+                            boolean swapped = swap && game % 2 == 1;
+                            String line;
+                            try {
+                                GameResult result = Runner.play(rules, seed + game, swapped ? new ProcessChannel(p2, p1) : new ProcessChannel(p1, p2), pipelined,
+                                        swapped ? new String[] { p2Command, p1Command } : new String[] { p1Command, p2Command });
+                                line = "RESULT " + game + " " + result.scores[0] + " " + result.scores[1];
+                            } catch (IOException | RuntimeException e) {
+                                System.err.println("Game " + game + " failed: " + e);
+                                Runner.destroy(p1, p2);
+                                line = "FAILED " + game;
+                            }
+                            synchronized (writer) {
+                                writer.write(line + "\n");
+                                writer.flush();
+                            }
+                        }
+                    } catch (IOException e) {
+                        // The coordinator is gone, its other workers take over
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        Runner.destroy(p1, p2);
+                    }
+                });
+            }
+            try {
+                for (String line = reader.readLine(); line != null && !line.equals("DONE"); line = reader.readLine()) {
+                    String[] fields = line.split(" ");
+                    if (fields[0].equals("BATCH")) {
+                        int first = Integer.parseInt(fields[1]);
+                        for (int game = first; game < first + Integer.parseInt(fields[2]); ++game) {
+                            queue.add(game);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // Same as DONE
+            }
+            queue.clear();
+            for (int t = 0; t < threads; ++t) {
+                queue.add(-1);
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * The random numbers dealing a game, and those of the agents playing it.
+ *
+ * A legacy random is java.util.Random's generator: every purpose draws from the one sequence, in the order the referee
+ * has always drawn, so a seed deals the same game as before. A split random gives each purpose its own SplitMix64
+ * stream derived from the seed, so drawing more or less for one purpose, as a rule variant does, leaves every other
+ * purpose's draws unchanged, and split() hands out independent streams, one per agent of a rollout.
+ */
+class GameRandom {
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final boolean split;
+    private final long seed;
+    private long state;
+
+    private GameRandom(boolean split, long seed, long state) {
+        this.split = split;
+        this.seed = seed;
+        this.state = state;
+    }
+
+    /**
+     * @param split false for java.util.Random's sequence
+     */
+    GameRandom(long seed, boolean split) {
+        this(split, seed, split ? seed : (seed ^ MULTIPLIER) & MASK);
+    }
+
+    /**
+     * @return the draws of a purpose: this random itself when legacy, otherwise a stream depending only on the seed and
+     *         the purpose
+     */
+    GameRandom stream(int purpose) {
+        if (!split) {
+            return this;
+        }
+        long streamSeed = mix(seed + GOLDEN_GAMMA * (purpose + 1L));
+        return new GameRandom(true, streamSeed, streamSeed);
+    }
+
+    /**
+     * @return a random whose draws are independent of this one's next draws
+     */
+    GameRandom split() {
+        long streamSeed = split ? mix(nextLong()) : nextLong();
+        return new GameRandom(streamSeed, split);
+    }
+
+    long nextLong() {
+        if (split) {
+            state += GOLDEN_GAMMA;
+            return mix(state);
+        }
+        return ((long) next(32) << 32) + next(32);
+    }
+
+    /**
+     * @return a value in [0, bound), drawn as java.util.Random.nextInt(bound) does
+     */
+    int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        int r = next(31);
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+            return (int) ((bound * (long) r) >> 31);
+        }
+        for (int u = r; u - (r = u % bound) + m < 0; u = next(31)) {
+        }
+        return r;
+    }
+
+    /**
+     * @return a value in [0, 1), drawn as java.util.Random.nextDouble() does
+     */
+    double nextDouble() {
+        return (((long) next(26) << 27) + next(27)) * 0x1.0p-53;
+    }
+
+    /**
+     * Permutes the list with the same swaps as Collections.shuffle(list, random).
+     */
+    <T> void shuffle(List<T> list) {
+        Object[] elements = list.toArray();
+        for (int i = elements.length; i > 1; --i) {
+            int j = nextInt(i);
+            Object swapped = elements[i - 1];
+            elements[i - 1] = elements[j];
+            elements[j] = swapped;
+        }
+        ListIterator<T> it = list.listIterator();
+        for (Object element : elements) {
+            it.next();
+            @SuppressWarnings("unchecked")
+            T t = (T) element;
+            it.set(t);
+        }
+    }
+
+    private int next(int bits) {
+        if (split) {
+            return (int) (nextLong() >>> (64 - bits));
+        }
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
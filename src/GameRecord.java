@@ -0,0 +1,44 @@
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A finished game: everything needed to play it again through the referee, which is deterministic given the seed,
+ * the league, the kind of random dealing the game and what the bots answered.
+ */
+class GameRecord {
+    static final int PLAYER_COUNT = 2;
+
+    final long seed;
+    final int league;
+    final boolean splitRandom;
+    final String[] bots;
+    final int[] scores;
+    // [player][read], null for a timeout
+    final List<List<String[]>> outputs;
+
+    public GameRecord(long seed, int league, boolean splitRandom, String[] bots, int[] scores, List<List<String[]>> outputs) {
+        this.seed = seed;
+        this.league = league;
+        this.splitRandom = splitRandom;
+        this.bots = bots;
+        this.scores = scores;
+        this.outputs = outputs;
+    }
+
+    public GameResult getResult() {
+        return new GameResult(seed, scores);
+    }
+
+    public Referee.Rules getRules() {
+        return Referee.Rules.forLeague(league).withSplitRandom(splitRandom);
+    }
+
+    /**
+     * Plays the recorded outputs again.
+     */
+    public GameResult replay() throws IOException {
+        Referee referee = new Referee(null, null, null, getRules());
+        referee.start(new ReplayChannel(outputs), new String[] { "seed=" + seed });
+        return new GameResult(seed, new int[] { referee.getScore(0), referee.getScore(1) });
+    }
+}
@@ -0,0 +1,32 @@
+class GameResult {
+    final long seed;
+    final int[] scores;
+
+    public GameResult(long seed, int[] scores) {
+        this.seed = seed;
+        this.scores = scores;
+    }
+
+    /**
+     * @return the index of the winning player, or -1 for a draw
+     */
+    public int getWinner() {
+        if (scores[0] > scores[1]) {
+            return 0;
+        } else if (scores[0] < scores[1]) {
+            return 1;
+        }
+        return -1;
+    }
+
+    public String getRanking() {
+        switch (getWinner()) {
+            case 0:
+                return "0 1";
+            case 1:
+                return "1 0";
+            default:
+                return "01";
+        }
+    }
+}
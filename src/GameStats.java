@@ -0,0 +1,75 @@
+import java.util.Arrays;
+
+/**
+ * Per game counters filled by the referee from its round events.
+ */
+class GameStats {
+    static final String[] PLAYER_COLUMNS = { "score", "samplesRank1", "samplesRank2", "samplesRank3", "diagnoses", "uploads", "downloads", "productions", "projects",
+            "moleculesA", "moleculesB", "moleculesC", "moleculesD", "moleculesE" };
+    static final int SCORE = 0;
+    static final int SAMPLES_RANK1 = 1;
+    static final int DIAGNOSES = 4;
+    static final int UPLOADS = 5;
+    static final int DOWNLOADS = 6;
+    static final int PRODUCTIONS = 7;
+    static final int PROJECTS = 8;
+    static final int MOLECULES_A = 9;
+    static final int PLAYER_COUNT = 2;
+
+    final long seed;
+    final int league;
+    int rounds;
+    final int[][] counters = new int[PLAYER_COUNT][PLAYER_COLUMNS.length];
+    int[][] scoreTimeline = new int[PLAYER_COUNT][64];
+
+    public GameStats(long seed, int league) {
+        this.seed = seed;
+        this.league = league;
+    }
+
+    public void onEvent(int player, int event, int detail) {
+        switch (event) {
+            case Referee.EV_NEW_SAMPLE:
+                counters[player][SAMPLES_RANK1 + detail]++;
+                break;
+            case Referee.EV_DIAGNOSE:
+                counters[player][DIAGNOSES]++;
+                break;
+            case Referee.EV_STORE_SAMPLE:
+                counters[player][UPLOADS]++;
+                break;
+            case Referee.EV_TAKE_SAMPLE:
+                counters[player][DOWNLOADS]++;
+                break;
+            case Referee.EV_PRODUCE:
+                counters[player][PRODUCTIONS]++;
+                break;
+            case Referee.EV_TAKE_RESOURCE:
+                counters[player][MOLECULES_A + detail]++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    public void onProjectCompleted(int player) {
+        counters[player][PROJECTS]++;
+    }
+
+    public void onRoundEnd(int round, int score0, int score1) {
+        if (rounds == scoreTimeline[0].length) {
+            for (int p = 0; p < PLAYER_COUNT; ++p) {
+                scoreTimeline[p] = Arrays.copyOf(scoreTimeline[p], rounds * 2);
+            }
+        }
+        scoreTimeline[0][rounds] = score0;
+        scoreTimeline[1][rounds] = score1;
+        rounds++;
+    }
+
+    public void finish(int[] scores) {
+        for (int p = 0; p < PLAYER_COUNT; ++p) {
+            counters[p][SCORE] = scores[p];
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import java.util.List;
+
+/**
+ * Fills its tray with samples of the highest rank its expertise makes worthwhile, diagnoses them, gives back the ones
+ * it can never complete, then collects molecules for as many samples as its storage holds and produces them.
+ */
+class GreedyAgent extends SparringAgent {
+    static final int STALL_LIMIT = 5;
+
+    private int stalled;
+
+    @Override
+    public String act(Referee referee, Referee.PlayerData me, Referee.PlayerData opponent) {
+        if (me.isMoving()) {
+            return "WAIT";
+        }
+        String action = decide(referee, me);
+        if (action.startsWith("CONNECT")) {
+            stalled = 0;
+        }
+        return action;
+    }
+
+    private String decide(Referee referee, Referee.PlayerData me) {
+        Referee.Rules rules = referee.rules;
+        List<Referee.Sample> tray = me.tray;
+
+        if (me.target == Referee.Module.SAMPLES && tray.size() < rules.maxTray) {
+            return connect(rank(me));
+        }
+        if (me.target == Referee.Module.DIAGNOSIS && tray.size() < rules.maxTray) {
+            Referee.Sample download = download(referee, me);
+            if (download != null) {
+                return connect(download.id);
+            }
+        }
+        Referee.Sample production = production(referee, me);
+        if (production != null) {
+            return me.target == Referee.Module.LABORATORY ? connect(production.id) : goTo(Referee.Module.LABORATORY);
+        }
+        for (Referee.Sample sample : tray) {
+            if (!sample.isDiscovered() || !feasible(referee, me.expertise, sample)) {
+                return me.target == Referee.Module.DIAGNOSIS ? connect(sample.id) : goTo(Referee.Module.DIAGNOSIS);
+            }
+        }
+
+        long missing = Referee.Molecules.minusSaturated(target(referee, me), me.storage);
+        if (missing != 0 && Referee.Molecules.total(me.storage) < rules.maxStorage) {
+            Referee.MoleculeType type = pick(referee, missing);
+            if (type != null) {
+                return me.target == Referee.Module.MOLECULES ? connect(type.name()) : goTo(Referee.Module.MOLECULES);
+            }
+        }
+        if (tray.isEmpty() || (missing != 0 && tray.size() < rules.maxTray)) {
+            return fetchSamples(referee, me);
+        }
+        if (++stalled > STALL_LIMIT && !tray.isEmpty()) {
+            // Give back a sample whose molecules never come
+            return me.target == Referee.Module.DIAGNOSIS ? connect(tray.get(tray.size() - 1).id) : goTo(Referee.Module.DIAGNOSIS);
+        }
+        return "WAIT";
+    }
+
+    private String fetchSamples(Referee referee, Referee.PlayerData me) {
+        if (referee.rules.samplesModuleEnabled) {
+            return goTo(Referee.Module.SAMPLES);
+        }
+        if (download(referee, me) == null) {
+            return "WAIT";
+        }
+        return goTo(Referee.Module.DIAGNOSIS);
+    }
+
+    int rank(Referee.PlayerData me) {
+        int expertise = Referee.Molecules.total(me.expertise);
+        return expertise < 3 ? 1 : expertise < 8 ? 2 : 3;
+    }
+
+    /**
+     * @return the sample to download from the cloud, or null to leave them there
+     */
+    Referee.Sample download(Referee referee, Referee.PlayerData me) {
+        if (referee.rules.samplesModuleEnabled) {
+            return null;
+        }
+        Referee.Sample best = null;
+        for (Referee.Sample sample : referee.storedSamples) {
+            if (feasible(referee, me.expertise, sample) && (best == null || sample.life > best.life)) {
+                best = sample;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the next sample to produce, or null if none is affordable
+     */
+    Referee.Sample production(Referee referee, Referee.PlayerData me) {
+        for (Referee.Sample sample : me.tray) {
+            if (sample.isDiscovered() && referee.canAfford(me, sample.packedCost)) {
+                return sample;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the molecules to hold, as packed counts
+     */
+    long target(Referee referee, Referee.PlayerData me) {
+        long target = 0;
+        for (Referee.Sample sample : me.tray) {
+            long need = Referee.Molecules.minusSaturated(sample.packedCost, me.expertise);
+            if (Referee.Molecules.total(target + need) <= referee.rules.maxStorage) {
+                target += need;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * @return the molecule to take next, or null if none of the missing ones is available
+     */
+    Referee.MoleculeType pick(Referee referee, long missing) {
+        for (Referee.MoleculeType type : Referee.MOLECULE_TYPES) {
+            if (Referee.Molecules.get(missing, type.index) > 0 && referee.molecules[type.index] > 0) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
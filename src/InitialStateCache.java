@@ -0,0 +1,89 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used initial game states, keyed by seed and by the rules that shape the initial deal, bounded by the
+ * estimated size of the cached states.
+ *
+ * A state is only worth its snapshot once its seed comes back, so a seed's first sighting just marks a slot of a
+ * direct-mapped table of key fingerprints; a campaign of distinct seeds never copies a state.
+ */
+class InitialStateCache {
+    private static final class Key {
+        final long seed;
+        final Referee.Rules rules;
+
+        Key(long seed, Referee.Rules rules) {
+            this.seed = seed;
+            this.rules = rules;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(seed) * 31 + rules.setupHashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return seed == other.seed && rules.sameSetup(other.rules);
+        }
+    }
+
+    private static final int MAX_SIGHTINGS = 1 << 20;
+
+    private final long maxSize;
+    private final LinkedHashMap<Key, Referee.Snapshot> states = new LinkedHashMap<>(256, 0.75f, true);
+    private final long[] sightings;
+    private long size;
+
+    public InitialStateCache(long maxSize) {
+        this.maxSize = maxSize;
+        sightings = new long[(int) Math.min(MAX_SIGHTINGS, Long.highestOneBit(Math.max(1, maxSize >> 8)))];
+    }
+
+    /**
+     * Records a sighting of the seed under the rules.
+     *
+     * @return whether it was sighted before, which makes its initial state worth a put
+     */
+    public synchronized boolean sightedBefore(long seed, Referee.Rules rules) {
+        long fingerprint = seed * 0x9E3779B97F4A7C15L + rules.setupHashCode();
+        fingerprint = (fingerprint ^ (fingerprint >>> 31)) | 1;
+        int slot = (int) (fingerprint >>> 1) & (sightings.length - 1);
+        if (sightings[slot] == fingerprint) {
+            return true;
+        }
+        sightings[slot] = fingerprint;
+        return false;
+    }
+
+    public synchronized Referee.Snapshot get(long seed, Referee.Rules rules) {
+        return states.get(new Key(seed, rules));
+    }
+
+    public synchronized void put(long seed, Referee.Rules rules, Referee.Snapshot state) {
+        if (state.estimatedSize() > maxSize) {
+            return;
+        }
+        Referee.Snapshot previous = states.put(new Key(seed, rules), state);
+        if (previous != null) {
+            size -= previous.estimatedSize();
+        }
+        size += state.estimatedSize();
+        Iterator<Map.Entry<Key, Referee.Snapshot>> eldest = states.entrySet().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            size -= eldest.next().getValue().estimatedSize();
+            eldest.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return states.size();
+    }
+}
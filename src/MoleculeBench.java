@@ -0,0 +1,130 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times the molecule checks of the game loop on packed counts (see Referee.Molecules) against the int arrays and
+ * streams they replaced, over the same random robots and samples, after checking that both give the same answers.
+ */
+class MoleculeBench {
+    static final int SAMPLES = 1 << 12;
+    static final int ROUNDS = 10;
+
+    private final int[][] expertise = new int[SAMPLES][];
+    private final int[][] storage = new int[SAMPLES][];
+    private final int[][] cost = new int[SAMPLES][];
+    private final long[] packedHeld = new long[SAMPLES];
+    private final long[] packedStorage = new long[SAMPLES];
+    private final long[] packedCost = new long[SAMPLES];
+
+    MoleculeBench(long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < SAMPLES; ++i) {
+            expertise[i] = counts(random, 4);
+            storage[i] = counts(random, 4);
+            cost[i] = counts(random, 7);
+            packedStorage[i] = Referee.Molecules.pack(storage[i]);
+            packedHeld[i] = Referee.Molecules.pack(expertise[i]) + packedStorage[i];
+            packedCost[i] = Referee.Molecules.pack(cost[i]);
+        }
+    }
+
+    private static int[] counts(Random random, int max) {
+        int[] counts = new int[Referee.MOLECULE_TYPES.length];
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = random.nextInt(max + 1);
+        }
+        return counts;
+    }
+
+    // The checks as they were before the counts were packed
+    private static boolean canAffordArrays(int[] expertise, int[] storage, int[] cost) {
+        for (int i = 0; i < Referee.MoleculeType.values().length; ++i) {
+            if (expertise[i] + storage[i] < cost[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int total(int[] storage) {
+        return Arrays.stream(storage).sum();
+    }
+
+    private int affordArrays(int iterations) {
+        int count = 0;
+        for (int n = 0; n < iterations; ++n) {
+            int i = n & (SAMPLES - 1);
+            count += canAffordArrays(expertise[i], storage[i], cost[i]) ? 1 : 0;
+        }
+        return count;
+    }
+
+    private int affordPacked(int iterations) {
+        int count = 0;
+        for (int n = 0; n < iterations; ++n) {
+            int i = n & (SAMPLES - 1);
+            count += Referee.Molecules.covers(packedHeld[i], packedCost[i]) ? 1 : 0;
+        }
+        return count;
+    }
+
+    private int totalArrays(int iterations) {
+        int sum = 0;
+        for (int n = 0; n < iterations; ++n) {
+            sum += total(storage[n & (SAMPLES - 1)]);
+        }
+        return sum;
+    }
+
+    private int totalPacked(int iterations) {
+        int sum = 0;
+        for (int n = 0; n < iterations; ++n) {
+            sum += Referee.Molecules.total(packedStorage[n & (SAMPLES - 1)]);
+        }
+        return sum;
+    }
+
+    /**
+     * @return false if the packed checks disagree with the array checks
+     */
+    boolean verify() {
+        for (int i = 0; i < SAMPLES; ++i) {
+            if (canAffordArrays(expertise[i], storage[i], cost[i]) != Referee.Molecules.covers(packedHeld[i], packedCost[i])
+                    || total(storage[i]) != Referee.Molecules.total(packedStorage[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private interface Loop {
+        int run(int iterations);
+    }
+
+    private static long sink;
+
+    /**
+     * @return the best time per iteration over ROUNDS rounds, in nanoseconds
+     */
+    private static double time(Loop loop, int iterations) {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            sink += loop.run(iterations);
+            best = Math.min(best, (double) (System.nanoTime() - start) / iterations);
+        }
+        return best;
+    }
+
+    static boolean run(int iterations) {
+        MoleculeBench bench = new MoleculeBench(1);
+        if (!bench.verify()) {
+            System.out.println("Packed molecule checks disagree with the array checks");
+            return false;
+        }
+        System.out.println("check       arrays ns  packed ns");
+        System.out.println(String.format("%-10s %10.2f %10.2f", "canAfford", time(bench::affordArrays, iterations), time(bench::affordPacked, iterations)));
+        System.out.println(String.format("%-10s %10.2f %10.2f", "total", time(bench::totalArrays, iterations), time(bench::totalPacked, iterations)));
+        return true;
+    }
+}
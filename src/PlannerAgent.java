@@ -0,0 +1,98 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays like GreedyAgent but plans which samples to complete, and in which order, counting the expertise each
+ * production adds and preferring plans it can collect molecules for right now; it then takes the scarcest molecules
+ * first and downloads cloud samples it can produce straight away.
+ */
+class PlannerAgent extends GreedyAgent {
+    private final List<Referee.Sample> plan = new ArrayList<>();
+
+    @Override
+    Referee.Sample download(Referee referee, Referee.PlayerData me) {
+        Referee.Sample best = super.download(referee, me);
+        for (Referee.Sample sample : referee.storedSamples) {
+            if (referee.canAfford(me, sample.packedCost) && (best == null || sample.life > best.life)) {
+                best = sample;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    Referee.Sample production(Referee referee, Referee.PlayerData me) {
+        for (Referee.Sample sample : plan) {
+            if (me.tray.contains(sample) && referee.canAfford(me, sample.packedCost)) {
+                return sample;
+            }
+        }
+        return super.production(referee, me);
+    }
+
+    @Override
+    long target(Referee referee, Referee.PlayerData me) {
+        List<Referee.Sample> candidates = new ArrayList<>();
+        for (Referee.Sample sample : me.tray) {
+            if (sample.isDiscovered() && feasible(referee, me.expertise, sample)) {
+                candidates.add(sample);
+            }
+        }
+        long reachable = me.storage + available(referee);
+        plan.clear();
+        long[] best = { -1, 0 };
+        search(referee, me, candidates, new ArrayList<>(), reachable, best);
+        return best[1];
+    }
+
+    /**
+     * Tries every order of every subset of the candidates, keeping in plan the one worth the most life points,
+     * preferring those whose molecules are all available.
+     *
+     * @param best the value and the packed molecules needed by the best plan so far
+     */
+    private void search(Referee referee, Referee.PlayerData me, List<Referee.Sample> candidates, List<Referee.Sample> order, long reachable, long[] best) {
+        if (!order.isEmpty()) {
+            long expertise = me.expertise;
+            long need = 0;
+            int life = 0;
+            for (Referee.Sample sample : order) {
+                need += Referee.Molecules.minusSaturated(sample.packedCost, expertise);
+                life += sample.life;
+                if (sample.expertise != null) {
+                    expertise += Referee.Molecules.unit(sample.expertise);
+                }
+            }
+            if (Referee.Molecules.total(need) > referee.rules.maxStorage) {
+                return;
+            }
+            long value = (Referee.Molecules.covers(reachable, need) ? 1L << 32 : 0) + ((long) life << 8) - Referee.Molecules.total(need);
+            if (value > best[0]) {
+                best[0] = value;
+                best[1] = need;
+                plan.clear();
+                plan.addAll(order);
+            }
+        }
+        for (int i = 0; i < candidates.size(); ++i) {
+            Referee.Sample sample = candidates.get(i);
+            if (!order.contains(sample)) {
+                order.add(sample);
+                search(referee, me, candidates, order, reachable, best);
+                order.remove(order.size() - 1);
+            }
+        }
+    }
+
+    @Override
+    Referee.MoleculeType pick(Referee referee, long missing) {
+        Referee.MoleculeType scarcest = null;
+        for (Referee.MoleculeType type : Referee.MOLECULE_TYPES) {
+            if (Referee.Molecules.get(missing, type.index) > 0 && referee.molecules[type.index] > 0
+                    && (scarcest == null || referee.molecules[type.index] < referee.molecules[scarcest.index])) {
+                scarcest = type;
+            }
+        }
+        return scarcest;
+    }
+}
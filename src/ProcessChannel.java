@@ -0,0 +1,56 @@
+import java.io.IOException;
+
+/**
+ * Talks to one bot process per player. A null bot stands for a player that is not behind this channel, such as an
+ * in-process agent.
+ */
+class ProcessChannel implements Referee.PlayerChannel {
+    private static final int RESET_TIMEOUT = 1000;
+
+    private final BotProcess[] bots;
+
+    public ProcessChannel(BotProcess... bots) {
+        this.bots = bots;
+    }
+
+    @Override
+    public void begin() throws IOException {
+        for (BotProcess bot : bots) {
+            if (bot != null) {
+                bot.ensureStarted();
+            }
+        }
+    }
+
+    @Override
+    public void sendInput(int playerIdx, String[] initLines, String[] lines) {
+        if (bots[playerIdx] != null) {
+            bots[playerIdx].send(initLines, lines);
+        }
+    }
+
+    @Override
+    public String[] readOutput(int playerIdx, int lineCount, int timeoutMillis) {
+        String[] outputs = new String[lineCount];
+        for (int i = 0; i < lineCount; i++) {
+            outputs[i] = bots[playerIdx].readLine(timeoutMillis);
+            if (outputs[i] == null) {
+                return null;
+            }
+        }
+        return outputs;
+    }
+
+    @Override
+    public void end(String ranking) {
+        for (BotProcess bot : bots) {
+            if (bot != null) {
+                bot.endGame(RESET_TIMEOUT);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks uniformly among the actions that cannot lose the game.
+ */
+class RandomAgent extends SparringAgent {
+    private final GameRandom random;
+
+    RandomAgent(GameRandom random) {
+        this.random = random;
+    }
+
+    @Override
+    public String act(Referee referee, Referee.PlayerData me, Referee.PlayerData opponent) {
+        if (me.isMoving()) {
+            return "WAIT";
+        }
+        Referee.Rules rules = referee.rules;
+        List<String> actions = new ArrayList<>();
+        actions.add("WAIT");
+        for (Referee.Module module : MODULES) {
+            if (module != me.target && (module != Referee.Module.SAMPLES || rules.samplesModuleEnabled)) {
+                actions.add(goTo(module));
+            }
+        }
+        switch (me.target) {
+            case SAMPLES:
+                if (me.tray.size() < rules.maxTray) {
+                    for (int rank = 1; rank <= Referee.SAMPLE_RANK_COUNT; ++rank) {
+                        actions.add(connect(rank));
+                    }
+                }
+                break;
+            case DIAGNOSIS:
+                for (Referee.Sample sample : me.tray) {
+                    actions.add(connect(sample.id));
+                }
+                if (me.tray.size() < rules.maxTray) {
+                    for (Referee.Sample sample : referee.storedSamples) {
+                        actions.add(connect(sample.id));
+                    }
+                }
+                break;
+            case MOLECULES:
+                if (Referee.Molecules.total(me.storage) < rules.maxStorage) {
+                    for (Referee.MoleculeType type : Referee.MOLECULE_TYPES) {
+                        if (referee.molecules[type.index] > 0) {
+                            actions.add(connect(type.name()));
+                        }
+                    }
+                }
+                break;
+            case LABORATORY:
+                for (Referee.Sample sample : me.tray) {
+                    if (sample.isDiscovered() && referee.canAfford(me, sample.packedCost)) {
+                        actions.add(connect(sample.id));
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+        return actions.get(random.nextInt(actions.size()));
+    }
+}
@@ -0,0 +1,54 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records what the bots of another channel answer, and what the referee's agents answer.
+ */
+class RecordingChannel implements Referee.PlayerChannel {
+    private final Referee.PlayerChannel channel;
+    private final List<List<String[]>> outputs = new ArrayList<>();
+
+    public RecordingChannel(Referee.PlayerChannel channel) {
+        this.channel = channel;
+        for (int i = 0; i < GameRecord.PLAYER_COUNT; ++i) {
+            outputs.add(new ArrayList<>());
+        }
+    }
+
+    public List<List<String[]>> getOutputs() {
+        return outputs;
+    }
+
+    @Override
+    public void begin() throws IOException {
+        channel.begin();
+    }
+
+    @Override
+    public void sendInput(int playerIdx, String[] initLines, String[] lines) throws IOException {
+        channel.sendInput(playerIdx, initLines, lines);
+    }
+
+    @Override
+    public String[] readOutput(int playerIdx, int lineCount, int timeoutMillis) throws IOException {
+        String[] output = channel.readOutput(playerIdx, lineCount, timeoutMillis);
+        outputs.get(playerIdx).add(output);
+        return output;
+    }
+
+    @Override
+    public void agentOutput(int playerIdx, String[] output) {
+        outputs.get(playerIdx).add(output);
+    }
+
+    @Override
+    public void end(String ranking) throws IOException {
+        channel.end(ranking);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -1,6 +1,8 @@
-import java.awt.Point;
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringReader;
@@ -14,19 +16,16 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Optional;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Random;
-import java.util.Scanner;
 import java.util.Set;
 import java.util.StringJoiner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 class Referee extends MultiReferee {
-    public static int LEAGUE_LEVEL = 3; // 0, 1 or 2. 3 is for silver+.
+    public static final int LEAGUE_LEVEL = 3; // 0, 1 or 2. 3 is for silver+.
 
     public static final int EV_NEW_SAMPLE = 0;
     public static final int EV_TAKE_SAMPLE = 1;
@@ -41,8 +40,12 @@ class Referee extends MultiReferee {
     public static final int MAX_STORAGE = 10;
     public static final int MAX_TRAY = 3;
     public static final int SAMPLE_RANK_COUNT = 3;
-    public static final int SCIENCE_PROJECT_VALUE = LEAGUE_LEVEL < 3 ? 30 : 50;
     public static final int MAX_SCORE = 170;
+    // The science projects a game draws its projects from
+    static final int[][] SCIENCE_PROJECT_COSTS = {
+            {3, 3, 0, 0, 3}, {0, 3, 3, 3, 0}, {3, 0, 0, 3, 3}, {0, 0, 4, 4, 0}, {0, 4, 4, 0, 0},
+            {0, 0, 0, 4, 4}, {4, 0, 0, 0, 4}, {3, 3, 3, 0, 0}, {0, 0, 3, 3, 3}, {4, 4, 0, 0, 0}};
+    public static final int MAX_ROUNDS = 200;
 
     enum MoleculeType {
         A(0), B(1), C(2), D(3), E(4);
@@ -54,6 +57,72 @@ class Referee extends MultiReferee {
         }
     }
 
+    static final MoleculeType[] MOLECULE_TYPES = MoleculeType.values();
+
+    /**
+     * Five molecule counts packed in one long, 12 bits per type. Counts must stay below MAX_COUNT so the top bit of each
+     * lane is free to catch borrows when comparing all five types at once, and total() needs the five counts to add up
+     * to less than MAX_TOTAL. Rules and SampleCard reject the values that could break either.
+     */
+    static final class Molecules {
+        static final int LANE_BITS = 12;
+        static final int MAX_COUNT = 1 << (LANE_BITS - 1);
+        static final int MAX_TOTAL = 1 << LANE_BITS;
+        static final long LANE_MASK = (1L << LANE_BITS) - 1;
+        static final long LOW_BITS = 0x001001001001001L;
+        static final long HIGH_BITS = LOW_BITS << (LANE_BITS - 1);
+
+        private Molecules() {
+        }
+
+        static long pack(int[] counts) {
+            long packed = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                packed |= ((long) counts[i]) << (i * LANE_BITS);
+            }
+            return packed;
+        }
+
+        static long unit(MoleculeType type) {
+            return 1L << (type.index * LANE_BITS);
+        }
+
+        static int get(long packed, int index) {
+            return (int) ((packed >>> (index * LANE_BITS)) & LANE_MASK);
+        }
+
+        /**
+         * @return true if every count of a is at least the matching count of b
+         */
+        static boolean covers(long a, long b) {
+            return (((a | HIGH_BITS) - b) & HIGH_BITS) == HIGH_BITS;
+        }
+
+        /**
+         * @return max(0, a - b) for each type
+         */
+        static long minusSaturated(long a, long b) {
+            long difference = (a | HIGH_BITS) - b;
+            long positive = ((difference & HIGH_BITS) >>> (LANE_BITS - 1)) * LANE_MASK;
+            return difference & ~HIGH_BITS & positive;
+        }
+
+        static int total(long packed) {
+            return (int) (((packed * LOW_BITS) >>> (4 * LANE_BITS)) & LANE_MASK);
+        }
+
+        static String toString(long packed) {
+            StringBuilder sb = new StringBuilder(16);
+            for (int i = 0; i < MOLECULE_TYPES.length; ++i) {
+                if (i > 0) {
+                    sb.append(' ');
+                }
+                sb.append(get(packed, i));
+            }
+            return sb.toString();
+        }
+    }
+
     enum Bound {
         TO_DIAGNOSIS, FROM_SAMPLES, FROM_DIAGNOSIS
     }
@@ -62,21 +131,202 @@ class Referee extends MultiReferee {
         SAMPLES, DIAGNOSIS, MOLECULES, LABORATORY, START_POS
     }
 
+    static final class Rules {
+        final int leagueLevel;
+        final int resourcePerType;
+        final int scienceProjectCount;
+        final int initDiagnosedSamples;
+        final int maxStorage;
+        final int maxTray;
+        final int scienceProjectValue;
+        final int maxScore;
+        final int maxRounds;
+        final boolean samplesModuleEnabled;
+        final boolean sampleGainEnabled;
+        final boolean cloneContestedDownloads;
+        final boolean scoreLimitEnabled;
+        final String expected;
+        private final int[][] distances;
+        // The samples dealt into each rank's pool, in the order they are shuffled from
+        final List<SampleCard> deck;
+        private final int deckHashCode;
+        // Whether the deal draws from a GameRandom stream per purpose rather than java.util.Random's single sequence
+        final boolean splitRandom;
+
+        private Rules(int leagueLevel, int resourcePerType, int scienceProjectCount, int initDiagnosedSamples, int maxStorage, int maxTray, int scienceProjectValue, int maxScore, int maxRounds,
+                int[][] distances, List<SampleCard> deck, boolean splitRandom) {
+            this.leagueLevel = leagueLevel;
+            this.resourcePerType = resourcePerType;
+            this.scienceProjectCount = scienceProjectCount;
+            this.initDiagnosedSamples = initDiagnosedSamples;
+            this.maxStorage = maxStorage;
+            this.maxTray = maxTray;
+            this.scienceProjectValue = scienceProjectValue;
+            this.maxScore = maxScore;
+            this.maxRounds = maxRounds;
+            this.distances = distances;
+            this.deck = deck;
+            this.deckHashCode = deck.hashCode();
+            this.splitRandom = splitRandom;
+            this.samplesModuleEnabled = leagueLevel > 0;
+            this.sampleGainEnabled = leagueLevel > 1;
+            this.cloneContestedDownloads = leagueLevel == 0;
+            this.scoreLimitEnabled = leagueLevel < 3;
+            this.expected = EXPECTED_BY_LEAGUE_LEVEL[Math.max(0, Math.min(leagueLevel, EXPECTED_BY_LEAGUE_LEVEL.length - 1))];
+            checkMoleculeCounts();
+            if (scienceProjectCount < 0 || scienceProjectCount > SCIENCE_PROJECT_COSTS.length) {
+                throw new IllegalArgumentException("scienceProjectCount must be between 0 and " + SCIENCE_PROJECT_COSTS.length);
+            }
+            if (maxTray < 1 || maxRounds < 1 || scienceProjectValue < 0) {
+                throw new IllegalArgumentException("maxTray and maxRounds must be positive and scienceProjectValue not negative");
+            }
+        }
+
+        /**
+         * Storage, and storage plus the expertise gained by one production a round at most, must fit the lanes of
+         * Molecules, as must the costs of the deck (see SampleCard).
+         */
+        private void checkMoleculeCounts() {
+            if (resourcePerType < 0 || resourcePerType >= Molecules.MAX_COUNT) {
+                throw new IllegalArgumentException("resourcePerType must be between 0 and " + (Molecules.MAX_COUNT - 1));
+            }
+            if (maxStorage < 0 || maxStorage >= Molecules.MAX_COUNT) {
+                throw new IllegalArgumentException("maxStorage must be between 0 and " + (Molecules.MAX_COUNT - 1));
+            }
+            if (maxRounds < 0 || (long) maxRounds + Math.min(maxStorage, resourcePerType) >= Molecules.MAX_COUNT) {
+                throw new IllegalArgumentException("maxRounds plus the molecules of a type a player can hold must be below " + Molecules.MAX_COUNT);
+            }
+        }
+
+        /**
+         * @throws IllegalArgumentException if the league is not 0 to 3
+         */
+        public static Rules forLeague(int leagueLevel) {
+            if (leagueLevel < 0 || leagueLevel >= RESOURCE_PER_TYPE_BY_LEAGUE_LEVEL.length) {
+                throw new IllegalArgumentException("league must be between 0 and " + (RESOURCE_PER_TYPE_BY_LEAGUE_LEVEL.length - 1));
+            }
+            int[][] distances = new int[Module.values().length][Module.values().length];
+            if (leagueLevel >= 2) {
+                setDistance(distances, Module.START_POS, Module.SAMPLES, 2);
+                setDistance(distances, Module.START_POS, Module.DIAGNOSIS, 2);
+                setDistance(distances, Module.START_POS, Module.MOLECULES, 2);
+                setDistance(distances, Module.START_POS, Module.LABORATORY, 2);
+                setDistance(distances, Module.SAMPLES, Module.DIAGNOSIS, 3);
+                setDistance(distances, Module.SAMPLES, Module.MOLECULES, 3);
+                setDistance(distances, Module.SAMPLES, Module.LABORATORY, 3);
+                setDistance(distances, Module.DIAGNOSIS, Module.MOLECULES, 3);
+                setDistance(distances, Module.DIAGNOSIS, Module.LABORATORY, 4);
+                setDistance(distances, Module.MOLECULES, Module.LABORATORY, 3);
+            } else {
+                for (Module a : Module.values()) {
+                    for (Module b : Module.values()) {
+                        if (a != b) {
+                            setDistance(distances, a, b, 1);
+                        }
+                    }
+                }
+            }
+            return new Rules(leagueLevel, RESOURCE_PER_TYPE_BY_LEAGUE_LEVEL[leagueLevel], SCIENCE_PROJECTS_BY_LEAGUE_LEVEL[leagueLevel], INIT_DIAGNOSED_SAMPLES_BY_LEAGUE_LEVEL[leagueLevel],
+                    MAX_STORAGE, MAX_TRAY, leagueLevel < 3 ? 30 : 50, MAX_SCORE, MAX_ROUNDS, distances, DEFAULT_DECK, false);
+        }
+
+        private static void setDistance(int[][] distances, Module a, Module b, int distance) {
+            distances[a.ordinal()][b.ordinal()] = distance;
+            distances[b.ordinal()][a.ordinal()] = distance;
+        }
+
+        public int distance(Module a, Module b) {
+            return distances[a.ordinal()][b.ordinal()];
+        }
+
+        /**
+         * @return true if both rules deal the same initial game state for a given seed
+         */
+        public boolean sameSetup(Rules other) {
+            return leagueLevel == other.leagueLevel && resourcePerType == other.resourcePerType && scienceProjectCount == other.scienceProjectCount
+                    && initDiagnosedSamples == other.initDiagnosedSamples && splitRandom == other.splitRandom
+                    && (deck == other.deck || (deckHashCode == other.deckHashCode && deck.equals(other.deck)));
+        }
+
+        public int setupHashCode() {
+            return ((((leagueLevel * 31 + resourcePerType) * 31 + scienceProjectCount) * 31 + initDiagnosedSamples) * 31 + deckHashCode) * 31 + (splitRandom ? 1 : 0);
+        }
+
+        public Rules withResourcePerType(int resourcePerType) {
+            return new Rules(leagueLevel, resourcePerType, scienceProjectCount, initDiagnosedSamples, maxStorage, maxTray, scienceProjectValue, maxScore, maxRounds, distances, deck, splitRandom);
+        }
+
+        public Rules withScienceProjectCount(int scienceProjectCount) {
+            return new Rules(leagueLevel, resourcePerType, scienceProjectCount, initDiagnosedSamples, maxStorage, maxTray, scienceProjectValue, maxScore, maxRounds, distances, deck, splitRandom);
+        }
+
+        public Rules withMaxStorage(int maxStorage) {
+            return new Rules(leagueLevel, resourcePerType, scienceProjectCount, initDiagnosedSamples, maxStorage, maxTray, scienceProjectValue, maxScore, maxRounds, distances, deck, splitRandom);
+        }
+
+        public Rules withMaxTray(int maxTray) {
+            return new Rules(leagueLevel, resourcePerType, scienceProjectCount, initDiagnosedSamples, maxStorage, maxTray, scienceProjectValue, maxScore, maxRounds, distances, deck, splitRandom);
+        }
+
+        public Rules withScienceProjectValue(int scienceProjectValue) {
+            return new Rules(leagueLevel, resourcePerType, scienceProjectCount, initDiagnosedSamples, maxStorage, maxTray, scienceProjectValue, maxScore, maxRounds, distances, deck, splitRandom);
+        }
+
+        public Rules withMaxRounds(int maxRounds) {
+            return new Rules(leagueLevel, resourcePerType, scienceProjectCount, initDiagnosedSamples, maxStorage, maxTray, scienceProjectValue, maxScore, maxRounds, distances, deck, splitRandom);
+        }
+
+        /**
+         * @throws IllegalArgumentException if a sample rank has no card
+         */
+        public Rules withDeck(List<SampleCard> deck) {
+            boolean[] ranks = new boolean[SAMPLE_RANK_COUNT];
+            for (SampleCard card : deck) {
+                if (card.rank >= 0 && card.rank < SAMPLE_RANK_COUNT) {
+                    ranks[card.rank] = true;
+                }
+            }
+            for (int rank = 0; rank < SAMPLE_RANK_COUNT; ++rank) {
+                if (!ranks[rank]) {
+                    throw new IllegalArgumentException("No sample of rank " + (rank + 1) + " in the deck");
+                }
+            }
+            return new Rules(leagueLevel, resourcePerType, scienceProjectCount, initDiagnosedSamples, maxStorage, maxTray, scienceProjectValue, maxScore, maxRounds, distances,
+                    Collections.unmodifiableList(new ArrayList<>(deck)), splitRandom);
+        }
+
+        public Rules withSplitRandom(boolean splitRandom) {
+            return new Rules(leagueLevel, resourcePerType, scienceProjectCount, initDiagnosedSamples, maxStorage, maxTray, scienceProjectValue, maxScore, maxRounds, distances, deck, splitRandom);
+        }
+
+        public Rules withDistance(Module a, Module b, int distance) {
+            if (a == b || distance < 1) {
+                throw new IllegalArgumentException("The distance between two modules must be positive");
+            }
+            int[][] copy = new int[distances.length][];
+            for (int i = 0; i < distances.length; ++i) {
+                copy[i] = distances[i].clone();
+            }
+            setDistance(copy, a, b, distance);
+            return new Rules(leagueLevel, resourcePerType, scienceProjectCount, initDiagnosedSamples, maxStorage, maxTray, scienceProjectValue, maxScore, maxRounds, copy, deck, splitRandom);
+        }
+    }
+
     static class PlayerData {
-        int[] storage, expertise;
+        long storage, expertise;
         boolean dead, attemptConnection, moved;
         int eta, score, deadAt, index;
         String message, connectionData;
         List<Sample> tray;
+        // Per science project, the number of molecule types in which this player lacks expertise
+        int[] unmetRequirements;
+        int completableProjects;
         Module from, target;
 
         public PlayerData(int index) {
-            int capacity = MoleculeType.values().length;
             from = Module.START_POS;
             target = Module.START_POS;
             eta = 0;
-            storage = new int[capacity];
-            expertise = new int[capacity];
             this.index = index;
             score = 0;
             tray = new ArrayList<>(3);
@@ -110,11 +360,10 @@ class Referee extends MultiReferee {
     }
 
     static class Sample {
-        public static int ENTITY_COUNT = 0;
-
         MoleculeType expertise;
         int life;
         int[] cost;
+        long packedCost;
         int id, rank;
         private boolean discovered;
         PlayerData discoveredBy;
@@ -123,6 +372,7 @@ class Referee extends MultiReferee {
             this.expertise = gain;
             this.life = life;
             this.cost = cost;
+            this.packedCost = Molecules.pack(cost);
         }
 
         public void setDiscovered(boolean discovered) {
@@ -144,6 +394,166 @@ class Referee extends MultiReferee {
         }
     }
 
+    /**
+     * A sample as printed in the deck, before it is dealt.
+     */
+    static final class SampleCard {
+        final int rank;
+        final int[] cost;
+        final int life;
+        final MoleculeType gain;
+
+        /**
+         * @throws IllegalArgumentException if a cost does not fit a lane of Molecules
+         */
+        SampleCard(int rank, int[] cost, int life, MoleculeType gain) {
+            int total = 0;
+            for (int count : cost) {
+                if (count < 0 || count >= Molecules.MAX_COUNT) {
+                    throw new IllegalArgumentException("Sample costs must be between 0 and " + (Molecules.MAX_COUNT - 1));
+                }
+                total += count;
+            }
+            if (total >= Molecules.MAX_TOTAL) {
+                throw new IllegalArgumentException("Sample costs must add up to less than " + Molecules.MAX_TOTAL);
+            }
+            this.rank = rank;
+            this.cost = cost;
+            this.life = life;
+            this.gain = gain;
+        }
+
+        /**
+         * Parses a card written as "rank a b c d e life gain", rank counting from 1.
+         */
+        static SampleCard parse(String line) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length != 8) {
+                throw new IllegalArgumentException("Expected rank, 5 costs, life and gain: " + line);
+            }
+            int rank = Integer.parseInt(fields[0]) - 1;
+            if (rank < 0 || rank >= SAMPLE_RANK_COUNT) {
+                throw new IllegalArgumentException("Bad sample rank: " + line);
+            }
+            int[] cost = new int[MOLECULE_TYPES.length];
+            for (int i = 0; i < cost.length; ++i) {
+                cost[i] = Integer.parseInt(fields[i + 1]);
+            }
+            return new SampleCard(rank, cost, Integer.parseInt(fields[6]), MoleculeType.valueOf(fields[7].toUpperCase()));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SampleCard)) {
+                return false;
+            }
+            SampleCard other = (SampleCard) o;
+            return rank == other.rank && life == other.life && gain == other.gain && Arrays.equals(cost, other.cost);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((rank * 31 + Arrays.hashCode(cost)) * 31 + life) * 31 + gain.ordinal();
+        }
+
+        @Override
+        public String toString() {
+            return (rank + 1) + " " + Molecules.toString(Molecules.pack(cost)) + " " + life + " " + gain;
+        }
+    }
+
+    static final List<SampleCard> DEFAULT_DECK = Collections.unmodifiableList(Arrays.asList(
+            new SampleCard(0, new int[]{0, 3, 0, 0, 0}, 01, MoleculeType.A),
+            new SampleCard(0, new int[]{0, 0, 0, 2, 1}, 01, MoleculeType.A),
+            new SampleCard(0, new int[]{0, 1, 1, 1, 1}, 01, MoleculeType.A),
+            new SampleCard(0, new int[]{0, 2, 0, 0, 2}, 01, MoleculeType.A),
+            new SampleCard(0, new int[]{0, 0, 4, 0, 0}, 10, MoleculeType.A),
+            new SampleCard(0, new int[]{0, 1, 2, 1, 1}, 01, MoleculeType.A),
+            new SampleCard(0, new int[]{0, 2, 2, 0, 1}, 01, MoleculeType.A),
+            new SampleCard(0, new int[]{3, 1, 0, 0, 1}, 01, MoleculeType.A),
+            new SampleCard(0, new int[]{1, 0, 0, 0, 2}, 01, MoleculeType.B),
+            new SampleCard(0, new int[]{0, 0, 0, 0, 3}, 01, MoleculeType.B),
+            new SampleCard(0, new int[]{1, 0, 1, 1, 1}, 01, MoleculeType.B),
+            new SampleCard(0, new int[]{0, 0, 2, 0, 2}, 01, MoleculeType.B),
+            new SampleCard(0, new int[]{0, 0, 0, 4, 0}, 10, MoleculeType.B),
+            new SampleCard(0, new int[]{1, 0, 1, 2, 1}, 01, MoleculeType.B),
+            new SampleCard(0, new int[]{1, 0, 2, 2, 0}, 01, MoleculeType.B),
+            new SampleCard(0, new int[]{0, 1, 3, 1, 0}, 01, MoleculeType.B),
+            new SampleCard(0, new int[]{2, 1, 0, 0, 0}, 01, MoleculeType.C),
+            new SampleCard(0, new int[]{0, 0, 0, 3, 0}, 01, MoleculeType.C),
+            new SampleCard(0, new int[]{1, 1, 0, 1, 1}, 01, MoleculeType.C),
+            new SampleCard(0, new int[]{0, 2, 0, 2, 0}, 01, MoleculeType.C),
+            new SampleCard(0, new int[]{0, 0, 0, 0, 4}, 10, MoleculeType.C),
+            new SampleCard(0, new int[]{1, 1, 0, 1, 2}, 01, MoleculeType.C),
+            new SampleCard(0, new int[]{0, 1, 0, 2, 2}, 01, MoleculeType.C),
+            new SampleCard(0, new int[]{1, 3, 1, 0, 0}, 01, MoleculeType.C),
+            new SampleCard(0, new int[]{0, 2, 1, 0, 0}, 01, MoleculeType.D),
+            new SampleCard(0, new int[]{3, 0, 0, 0, 0}, 01, MoleculeType.D),
+            new SampleCard(0, new int[]{1, 1, 1, 0, 1}, 01, MoleculeType.D),
+            new SampleCard(0, new int[]{2, 0, 0, 2, 0}, 01, MoleculeType.D),
+            new SampleCard(0, new int[]{4, 0, 0, 0, 0}, 10, MoleculeType.D),
+            new SampleCard(0, new int[]{2, 1, 1, 0, 1}, 01, MoleculeType.D),
+            new SampleCard(0, new int[]{2, 0, 1, 0, 2}, 01, MoleculeType.D),
+            new SampleCard(0, new int[]{1, 0, 0, 1, 3}, 01, MoleculeType.D),
+            new SampleCard(0, new int[]{0, 0, 2, 1, 0}, 01, MoleculeType.E),
+            new SampleCard(0, new int[]{0, 0, 3, 0, 0}, 01, MoleculeType.E),
+            new SampleCard(0, new int[]{1, 1, 1, 1, 0}, 01, MoleculeType.E),
+            new SampleCard(0, new int[]{2, 0, 2, 0, 0}, 01, MoleculeType.E),
+            new SampleCard(0, new int[]{0, 4, 0, 0, 0}, 10, MoleculeType.E),
+            new SampleCard(0, new int[]{1, 2, 1, 1, 0}, 01, MoleculeType.E),
+            new SampleCard(0, new int[]{2, 2, 0, 1, 0}, 01, MoleculeType.E),
+            new SampleCard(0, new int[]{0, 0, 1, 3, 1}, 01, MoleculeType.E),
+            new SampleCard(1, new int[]{0, 0, 0, 5, 0}, 20, MoleculeType.A),
+            new SampleCard(1, new int[]{6, 0, 0, 0, 0}, 30, MoleculeType.A),
+            new SampleCard(1, new int[]{0, 0, 3, 2, 2}, 10, MoleculeType.A),
+            new SampleCard(1, new int[]{0, 0, 1, 4, 2}, 20, MoleculeType.A),
+            new SampleCard(1, new int[]{2, 3, 0, 3, 0}, 10, MoleculeType.A),
+            new SampleCard(1, new int[]{0, 0, 0, 5, 3}, 20, MoleculeType.A),
+            new SampleCard(1, new int[]{0, 5, 0, 0, 0}, 20, MoleculeType.B),
+            new SampleCard(1, new int[]{0, 6, 0, 0, 0}, 30, MoleculeType.B),
+            new SampleCard(1, new int[]{0, 2, 2, 3, 0}, 10, MoleculeType.B),
+            new SampleCard(1, new int[]{2, 0, 0, 1, 4}, 20, MoleculeType.B),
+            new SampleCard(1, new int[]{0, 2, 3, 0, 3}, 20, MoleculeType.B),
+            new SampleCard(1, new int[]{5, 3, 0, 0, 0}, 20, MoleculeType.B),
+            new SampleCard(1, new int[]{0, 0, 5, 0, 0}, 20, MoleculeType.C),
+            new SampleCard(1, new int[]{0, 0, 6, 0, 0}, 30, MoleculeType.C),
+            new SampleCard(1, new int[]{2, 3, 0, 0, 2}, 10, MoleculeType.C),
+            new SampleCard(1, new int[]{3, 0, 2, 3, 0}, 10, MoleculeType.C),
+            new SampleCard(1, new int[]{4, 2, 0, 0, 1}, 20, MoleculeType.C),
+            new SampleCard(1, new int[]{0, 5, 3, 0, 0}, 20, MoleculeType.C),
+            new SampleCard(1, new int[]{5, 0, 0, 0, 0}, 20, MoleculeType.D),
+            new SampleCard(1, new int[]{0, 0, 0, 6, 0}, 30, MoleculeType.D),
+            new SampleCard(1, new int[]{2, 0, 0, 2, 3}, 10, MoleculeType.D),
+            new SampleCard(1, new int[]{1, 4, 2, 0, 0}, 20, MoleculeType.D),
+            new SampleCard(1, new int[]{0, 3, 0, 2, 3}, 10, MoleculeType.D),
+            new SampleCard(1, new int[]{3, 0, 0, 0, 5}, 20, MoleculeType.D),
+            new SampleCard(1, new int[]{0, 0, 0, 0, 5}, 20, MoleculeType.E),
+            new SampleCard(1, new int[]{0, 0, 0, 0, 6}, 30, MoleculeType.E),
+            new SampleCard(1, new int[]{3, 2, 2, 0, 0}, 10, MoleculeType.E),
+            new SampleCard(1, new int[]{0, 1, 4, 2, 0}, 20, MoleculeType.E),
+            new SampleCard(1, new int[]{3, 0, 3, 0, 2}, 10, MoleculeType.E),
+            new SampleCard(1, new int[]{0, 0, 5, 3, 0}, 20, MoleculeType.E),
+            new SampleCard(2, new int[]{0, 0, 0, 0, 7}, 40, MoleculeType.A),
+            new SampleCard(2, new int[]{3, 0, 0, 0, 7}, 50, MoleculeType.A),
+            new SampleCard(2, new int[]{3, 0, 0, 3, 6}, 40, MoleculeType.A),
+            new SampleCard(2, new int[]{0, 3, 3, 5, 3}, 30, MoleculeType.A),
+            new SampleCard(2, new int[]{7, 0, 0, 0, 0}, 40, MoleculeType.B),
+            new SampleCard(2, new int[]{7, 3, 0, 0, 0}, 50, MoleculeType.B),
+            new SampleCard(2, new int[]{6, 3, 0, 0, 3}, 40, MoleculeType.B),
+            new SampleCard(2, new int[]{3, 0, 3, 3, 5}, 30, MoleculeType.B),
+            new SampleCard(2, new int[]{0, 7, 0, 0, 0}, 40, MoleculeType.C),
+            new SampleCard(2, new int[]{0, 7, 3, 0, 0}, 50, MoleculeType.C),
+            new SampleCard(2, new int[]{3, 6, 3, 0, 0}, 40, MoleculeType.C),
+            new SampleCard(2, new int[]{5, 3, 0, 3, 3}, 30, MoleculeType.C),
+            new SampleCard(2, new int[]{0, 0, 7, 0, 0}, 40, MoleculeType.D),
+            new SampleCard(2, new int[]{0, 0, 7, 3, 0}, 50, MoleculeType.D),
+            new SampleCard(2, new int[]{0, 3, 6, 3, 0}, 40, MoleculeType.D),
+            new SampleCard(2, new int[]{3, 5, 3, 0, 3}, 30, MoleculeType.D),
+            new SampleCard(2, new int[]{0, 0, 0, 7, 0}, 40, MoleculeType.E),
+            new SampleCard(2, new int[]{0, 0, 0, 7, 3}, 50, MoleculeType.E),
+            new SampleCard(2, new int[]{0, 0, 3, 6, 3}, 40, MoleculeType.E),
+            new SampleCard(2, new int[]{3, 3, 5, 3, 0}, 30, MoleculeType.E)));
+
     static class ScienceProject {
         int[] cost;
         int index;
@@ -157,9 +567,10 @@ class Referee extends MultiReferee {
         PlayerData player;
         Sample sample;
 
-        public Diagnosis(PlayerData player, Sample sample) {
+        public Diagnosis set(PlayerData player, Sample sample) {
             this.player = player;
             this.sample = sample;
+            return this;
         }
     }
 
@@ -176,37 +587,46 @@ class Referee extends MultiReferee {
     static abstract class Transfer {
         PlayerData player;
 
-        public Transfer(PlayerData player) {
-            this.player = player;
-        }
-
         public abstract void apply(Referee refere);
 
         public abstract Translatable getSummary();
+
+        /**
+         * @return the EV_* code of the event shown in the viewer for this transfer
+         */
+        public abstract int getEvent();
+
+        /**
+         * @return the sample rank for EV_NEW_SAMPLE, the molecule index for EV_TAKE_RESOURCE, 0 otherwise
+         */
+        public int getEventDetail() {
+            return 0;
+        }
     }
 
     static class ProductionTransfer extends Transfer {
         Sample sample;
 
-        public ProductionTransfer(PlayerData player, Sample sample) {
-            super(player);
+        public ProductionTransfer set(PlayerData player, Sample sample) {
+            this.player = player;
             this.sample = sample;
+            return this;
         }
 
         @Override
         public void apply(Referee referee) {
             player.tray.remove(sample);
 
-            for (int i = 0; i < MoleculeType.values().length; ++i) {
-                int toPay = Math.max(0, sample.cost[i] - player.expertise[i]);
-                player.storage[i] -= toPay;
-                MoleculeType type = MoleculeType.values()[i];
-                referee.molecules.put(type, referee.molecules.get(type) + toPay);
+            long toPay = Molecules.minusSaturated(sample.packedCost, player.expertise);
+            player.storage -= toPay;
+            for (int i = 0; i < MOLECULE_TYPES.length; ++i) {
+                referee.molecules[i] += Molecules.get(toPay, i);
             }
 
             player.score += sample.life;
             if (sample.expertise != null) {
-                player.expertise[sample.expertise.index]++;
+                player.expertise += Molecules.unit(sample.expertise);
+                referee.expertiseGained(player, sample.expertise);
             }
         }
 
@@ -217,23 +637,30 @@ class Referee extends MultiReferee {
             }
             return new Translatable("production", player.index, sample.id, sample.life, sample.expertise.name());
         }
+
+        @Override
+        public int getEvent() {
+            return EV_PRODUCE;
+        }
     }
 
     static class SampleTransfer extends Transfer {
         Sample sample, clone;
         Bound bound;
 
-        public SampleTransfer(PlayerData player, Sample sample, Bound bound) {
-            super(player);
+        public SampleTransfer set(PlayerData player, Sample sample, Bound bound) {
+            this.player = player;
             this.sample = sample;
             this.bound = bound;
+            this.clone = null;
+            return this;
         }
 
         @Override
         public void apply(Referee referee) {
             if (bound.equals(Bound.TO_DIAGNOSIS)) {
                 player.tray.remove(sample);
-                if (referee.storedSamples.stream().noneMatch(stored -> stored.equals(sample))) {
+                if (!referee.storedSamples.contains(sample)) {
                     referee.storedSamples.add(sample);
                 }
 
@@ -264,95 +691,339 @@ class Referee extends MultiReferee {
             this.clone = clonedSample;
         }
 
+        @Override
+        public int getEvent() {
+            if (bound.equals(Bound.TO_DIAGNOSIS)) {
+                return EV_STORE_SAMPLE;
+            } else if (bound.equals(Bound.FROM_SAMPLES)) {
+                return EV_NEW_SAMPLE;
+            } else {
+                return EV_TAKE_SAMPLE;
+            }
+        }
+
+        @Override
+        public int getEventDetail() {
+            return bound.equals(Bound.FROM_SAMPLES) ? sample.rank : 0;
+        }
+
     }
 
     static class ProjectCompletion {
         PlayerData player;
         ScienceProject project;
 
-        public ProjectCompletion(PlayerData player, ScienceProject project) {
+        public ProjectCompletion set(PlayerData player, ScienceProject project) {
             this.player = player;
             this.project = project;
+            return this;
         }
     }
 
     static class ResourceTransfer extends Transfer {
         MoleculeType resourceType;
 
-        public ResourceTransfer(PlayerData player, MoleculeType type) {
-            super(player);
+        public ResourceTransfer set(PlayerData player, MoleculeType type) {
+            this.player = player;
             this.resourceType = type;
+            return this;
         }
 
         @Override
         public void apply(Referee referee) {
-            player.storage[resourceType.index]++;
-            referee.molecules.put(resourceType, referee.molecules.get(resourceType) - 1);
+            player.storage += Molecules.unit(resourceType);
+            referee.molecules[resourceType.index]--;
         }
 
         @Override
         public Translatable getSummary() {
             return new Translatable("takeMolecule", player.index, resourceType.name());
         }
+
+        @Override
+        public int getEvent() {
+            return EV_TAKE_RESOURCE;
+        }
+
+        @Override
+        public int getEventDetail() {
+            return resourceType.index;
+        }
     }
 
-    static class ModulePair {
-        HashSet<Module> set;
+    /**
+     * Round events reused from one round to the next: add() hands out a previously allocated record when there is one.
+     * The records come from anonymous subclasses rather than constructor references so that no lambda is bootstrapped
+     * while the referee starts.
+     */
+    static abstract class EventBuffer<T> {
+        private final ArrayList<T> records = new ArrayList<>();
+        private int size;
+
+        abstract T create();
 
-        public ModulePair(Module a, Module b) {
-            set = new HashSet<>();
-            set.add(a);
-            set.add(b);
+        T add() {
+            if (size == records.size()) {
+                records.add(create());
+            }
+            return records.get(size++);
         }
 
-        @Override
-        public int hashCode() {
-            return set.hashCode();
+        T get(int index) {
+            return records.get(index);
         }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            ModulePair other = (ModulePair) obj;
-            return set.equals(other.set);
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
         }
     }
 
-    static final Pattern PLAYER_MOVE_PATTERN = Pattern.compile("^GOTO\\s+(?<module>LABORATORY|DIAGNOSIS|MOLECULES|SAMPLES)(?:\\s+)?(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
-    static final Pattern PLAYER_WAIT_PATTERN = Pattern.compile("^WAIT(?:\\s+)?(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
-    static final Pattern PLAYER_USE_PATTERN = Pattern.compile("^CONNECT(?:\\s+(?<data>[ABCDE]|(?:-?\\d+)))?(?:\\s+)?(?:\\s+(?<message>.+))?$", Pattern.CASE_INSENSITIVE);
+    /**
+     * The cloud downloads requested this round, at most one per sample, in the order the samples were first requested.
+     */
+    static final class CloudRequests {
+        private SampleTransfer[] bySampleId = new SampleTransfer[64];
+        private int[] sampleIds = new int[8];
+        private int size;
+
+        SampleTransfer get(Sample sample) {
+            return sample.id < bySampleId.length ? bySampleId[sample.id] : null;
+        }
+
+        void put(Sample sample, SampleTransfer transfer) {
+            if (sample.id >= bySampleId.length) {
+                bySampleId = Arrays.copyOf(bySampleId, Math.max(sample.id + 1, bySampleId.length * 2));
+            }
+            if (bySampleId[sample.id] == null) {
+                if (size == sampleIds.length) {
+                    sampleIds = Arrays.copyOf(sampleIds, size * 2);
+                }
+                sampleIds[size++] = sample.id;
+            }
+            bySampleId[sample.id] = transfer;
+        }
+
+        SampleTransfer get(int index) {
+            return bySampleId[sampleIds[index]];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            for (int i = 0; i < size; ++i) {
+                bySampleId[sampleIds[i]] = null;
+            }
+            size = 0;
+        }
+    }
+
+    /**
+     * Copy of the game state between two rounds. Samples are copied, the immutable cost arrays and science projects
+     * are shared.
+     */
+    static final class Snapshot {
+        private static final class SampleState {
+            final int[] cost;
+            final int life, id, rank, discoveredBy;
+            final MoleculeType expertise;
+            final boolean discovered;
+
+            SampleState(Sample sample) {
+                cost = sample.cost;
+                life = sample.life;
+                id = sample.id;
+                rank = sample.rank;
+                expertise = sample.expertise;
+                discovered = sample.isDiscovered();
+                discoveredBy = sample.discoveredBy == null ? -1 : sample.discoveredBy.index;
+            }
+
+            Sample toSample(List<PlayerData> players) {
+                Sample sample = new Sample(cost, life, expertise);
+                sample.id = id;
+                sample.rank = rank;
+                sample.setDiscovered(discovered);
+                sample.discoveredBy = discoveredBy < 0 ? null : players.get(discoveredBy);
+                return sample;
+            }
+        }
+
+        private static final class PlayerState {
+            final long storage, expertise;
+            final boolean dead;
+            final int eta, score, deadAt;
+            final Module from, target;
+            final SampleState[] tray;
+
+            PlayerState(PlayerData player) {
+                storage = player.storage;
+                expertise = player.expertise;
+                dead = player.dead;
+                eta = player.eta;
+                score = player.score;
+                deadAt = player.deadAt;
+                from = player.from;
+                target = player.target;
+                tray = copy(player.tray);
+            }
+        }
+
+        final long seed;
+        private final int entityCount, remainingProjects, sampleCount;
+        private final int[] molecules;
+        private final PlayerState[] players;
+        private final SampleState[][] samplePool;
+        private final SampleState[] storedSamples;
+        private final List<ScienceProject> scienceProjects;
+
+        private Snapshot(Referee referee) {
+            seed = referee.seed;
+            entityCount = referee.entityCount;
+            remainingProjects = referee.remainingProjects;
+            molecules = referee.molecules.clone();
+            players = new PlayerState[referee.players.size()];
+            int count = 0;
+            for (int i = 0; i < players.length; ++i) {
+                players[i] = new PlayerState(referee.players.get(i));
+                count += players[i].tray.length;
+            }
+            samplePool = new SampleState[referee.samplePool.size()][];
+            for (int rank = 0; rank < samplePool.length; ++rank) {
+                samplePool[rank] = copy(referee.samplePool.get(rank));
+                count += samplePool[rank].length;
+            }
+            storedSamples = copy(referee.storedSamples);
+            sampleCount = count + storedSamples.length;
+            scienceProjects = referee.scienceProjects;
+        }
+
+        private static SampleState[] copy(List<Sample> samples) {
+            SampleState[] states = new SampleState[samples.size()];
+            int i = 0;
+            for (Sample sample : samples) {
+                states[i++] = new SampleState(sample);
+            }
+            return states;
+        }
+
+        private static <C extends List<Sample>> C restore(SampleState[] states, C samples, List<PlayerData> players) {
+            for (SampleState state : states) {
+                samples.add(state.toSample(players));
+            }
+            return samples;
+        }
+
+        /**
+         * @return a rough count of the bytes held by this snapshot
+         */
+        public long estimatedSize() {
+            return 256 + 48L * sampleCount + 64L * players.length;
+        }
+    }
+
+    /**
+     * The action patterns, compiled when the first action is read rather than before the first input is sent.
+     */
+    private static final class ActionPatterns {
+        static final Pattern PLAYER_MOVE_PATTERN = Pattern.compile("^GOTO\\s+(?<module>LABORATORY|DIAGNOSIS|MOLECULES|SAMPLES)(?:\\s+)?(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+        static final Pattern PLAYER_WAIT_PATTERN = Pattern.compile("^WAIT(?:\\s+)?(?:\\s+(?<message>.+))?", Pattern.CASE_INSENSITIVE);
+        static final Pattern PLAYER_USE_PATTERN = Pattern.compile("^CONNECT(?:\\s+(?<data>[ABCDE]|(?:-?\\d+)))?(?:\\s+)?(?:\\s+(?<message>.+))?$", Pattern.CASE_INSENSITIVE);
+    }
+
     static final String[] EXPECTED_BY_LEAGUE_LEVEL = {"GOTO LABORATORY|DIAGNOSIS|MOLECULES | CONNECT data", "GOTO LABORATORY|DIAGNOSIS|MOLECULES|SAMPLES | CONNECT data", "GOTO LABORATORY|DIAGNOSIS|MOLECULES|SAMPLES | CONNECT data", "GOTO LABORATORY|DIAGNOSIS|MOLECULES|SAMPLES | CONNECT data"};
 
     private List<PlayerData> players;
-    private List<Transfer> transfers;
-    private Map<Sample, SampleTransfer> cloudRequests;
-    private List<Diagnosis> diagnoses;
-    private List<ProjectCompletion> projectCompletions;
-    private Random random;
+    private final ArrayList<Transfer> transfers = new ArrayList<>();
+    private final EventBuffer<ProductionTransfer> productionTransfers = new EventBuffer<ProductionTransfer>() {
+        @Override
+        ProductionTransfer create() {
+            return new ProductionTransfer();
+        }
+    };
+    private final EventBuffer<SampleTransfer> sampleTransfers = new EventBuffer<SampleTransfer>() {
+        @Override
+        SampleTransfer create() {
+            return new SampleTransfer();
+        }
+    };
+    private final EventBuffer<ResourceTransfer> resourceTransfers = new EventBuffer<ResourceTransfer>() {
+        @Override
+        ResourceTransfer create() {
+            return new ResourceTransfer();
+        }
+    };
+    private final CloudRequests cloudRequests = new CloudRequests();
+    private final EventBuffer<Diagnosis> diagnoses = new EventBuffer<Diagnosis>() {
+        @Override
+        Diagnosis create() {
+            return new Diagnosis();
+        }
+    };
+    private final EventBuffer<ProjectCompletion> projectCompletions = new EventBuffer<ProjectCompletion>() {
+        @Override
+        ProjectCompletion create() {
+            return new ProjectCompletion();
+        }
+    };
+    // The purposes of the deal's random streams, the samples of rank r drawing from RANDOM_SAMPLES + r
+    static final int RANDOM_SCIENCE_PROJECTS = 0;
+    static final int RANDOM_SAMPLES = 1;
+    private GameRandom random;
     private List<LinkedList<Sample>> samplePool;
     List<Sample> storedSamples;
     List<ScienceProject> scienceProjects;
+    int remainingProjects;
     private long seed;
-    Map<MoleculeType, Integer> molecules;
-    Map<ModulePair, Integer> distances;
+    private int entityCount;
+    int[] molecules;
+    final Rules rules;
+    private InitialStateCache initialStates;
+    private GameStats stats;
+    private final Agent[] agents = new Agent[2];
+    private static final RefereeEvents EVENTS = RefereeEvents.INSTANCE;
+    // The current round's input, until the game changes
+    private Observation observation;
 
     public Referee(InputStream is, PrintStream out, PrintStream err) throws IOException {
+        this(is, out, err, Rules.forLeague(LEAGUE_LEVEL));
+    }
+
+    public Referee(InputStream is, PrintStream out, PrintStream err, Rules rules) throws IOException {
         super(is, out, err);
+        this.rules = rules;
+    }
+
+    /**
+     * Shares the initial game states dealt for each seed with the other referees using the same cache.
+     */
+    public void setInitialStateCache(InitialStateCache initialStates) {
+        this.initialStates = initialStates;
     }
 
     @Override
     protected void initReferee(int playerCount, Properties prop) throws InvalidFormatException {
         seed = Long.valueOf(prop.getProperty("seed", String.valueOf(new Random(System.currentTimeMillis()).nextLong())));
 
-        random = new Random(seed);
+        observation = null;
+        clearEvents();
+        if (EVENTS != null) {
+            EVENTS.gameStarted(seed, rules.leagueLevel);
+        }
+
+        Snapshot initialState = initialStates == null ? null : initialStates.get(seed, rules);
+        if (initialState != null && initialState.players.length == playerCount) {
+            restore(initialState);
+            return;
+        }
 
-        // map
-        initMap();
+        random = new GameRandom(seed, rules.splitRandom);
+        entityCount = 0;
 
         // players
         players = new ArrayList<PlayerData>();
@@ -361,10 +1032,8 @@ class Referee extends MultiReferee {
         }
 
         // resources
-        molecules = new HashMap<>();
-        for (MoleculeType type : MoleculeType.values()) {
-            molecules.put(type, RESOURCE_PER_TYPE_BY_LEAGUE_LEVEL[LEAGUE_LEVEL]);
-        }
+        molecules = new int[MOLECULE_TYPES.length];
+        Arrays.fill(molecules, rules.resourcePerType);
 
         // samples
         initSamplePool();
@@ -372,38 +1041,175 @@ class Referee extends MultiReferee {
 
         // science
         initScienceProjects();
+        for (PlayerData player : players) {
+            initProjectProgress(player);
+        }
 
         // diagnosis
         initDiagnonisModule();
 
-        transfers = new LinkedList<>();
-        cloudRequests = new HashMap<>();
-        diagnoses = new LinkedList<>();
-        projectCompletions = new LinkedList<>();
+        if (initialStates != null && initialStates.sightedBefore(seed, rules)) {
+            initialStates.put(seed, rules, snapshot());
+        }
+    }
+
+    /**
+     * Lets an agent running in this JVM play for the player instead of the bot behind the channel.
+     */
+    public void setAgent(int playerIdx, Agent agent) {
+        agents[playerIdx] = agent;
+    }
+
+    PlayerData getPlayer(int playerIdx) {
+        return players.get(playerIdx);
+    }
+
+    @Override
+    public void start(PlayerChannel channel, String[] init) throws IOException {
+        super.start(agents[0] == null && agents[1] == null ? channel : new AgentChannel(channel), init);
+        if (EVENTS != null) {
+            EVENTS.gameEnded(seed, getScore(0), getScore(1));
+        }
+    }
+
+    /**
+     * Asks the agents for their actions, reading the game state directly instead of going through the input lines,
+     * and forwards the other players to the wrapped channel.
+     */
+    private final class AgentChannel implements PlayerChannel {
+        private final PlayerChannel channel;
+
+        AgentChannel(PlayerChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            channel.begin();
+        }
+
+        @Override
+        public void sendInput(int playerIdx, String[] initLines, String[] lines) throws IOException {
+            if (agents[playerIdx] == null) {
+                channel.sendInput(playerIdx, initLines, lines);
+            }
+        }
+
+        @Override
+        public String[] readOutput(int playerIdx, int lineCount, int timeoutMillis) throws IOException {
+            if (agents[playerIdx] == null) {
+                return channel.readOutput(playerIdx, lineCount, timeoutMillis);
+            }
+            String[] output = { agents[playerIdx].act(Referee.this, players.get(playerIdx), players.get(1 - playerIdx)) };
+            channel.agentOutput(playerIdx, output);
+            return output;
+        }
+
+        @Override
+        public void end(String ranking) throws IOException {
+            channel.end(ranking);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        @Override
+        public boolean wantsInput(int playerIdx) {
+            return agents[playerIdx] == null && channel.wantsInput(playerIdx);
+        }
+    }
+
+    /**
+     * Counts this game's events into stats at the end of every round.
+     */
+    public void setStats(GameStats stats) {
+        this.stats = stats;
+    }
 
+    Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    void restore(Snapshot snapshot) {
+        observation = null;
+        seed = snapshot.seed;
+        entityCount = snapshot.entityCount;
+        molecules = snapshot.molecules.clone();
+
+        players = new ArrayList<PlayerData>(snapshot.players.length);
+        for (int i = 0; i < snapshot.players.length; ++i) {
+            players.add(new PlayerData(i));
+        }
+        for (int i = 0; i < snapshot.players.length; ++i) {
+            Snapshot.PlayerState state = snapshot.players[i];
+            PlayerData player = players.get(i);
+            player.storage = state.storage;
+            player.expertise = state.expertise;
+            player.dead = state.dead;
+            player.eta = state.eta;
+            player.score = state.score;
+            player.deadAt = state.deadAt;
+            player.from = state.from;
+            player.target = state.target;
+            Snapshot.restore(state.tray, player.tray, players);
+        }
+
+        samplePool = new ArrayList<LinkedList<Sample>>(snapshot.samplePool.length);
+        for (Snapshot.SampleState[] deck : snapshot.samplePool) {
+            samplePool.add(Snapshot.restore(deck, new LinkedList<Sample>(), players));
+        }
+        storedSamples = Snapshot.restore(snapshot.storedSamples, new LinkedList<Sample>(), players);
+
+        scienceProjects = snapshot.scienceProjects;
+        remainingProjects = snapshot.remainingProjects;
+        for (PlayerData player : players) {
+            initProjectProgress(player);
+        }
     }
 
     private void initScienceProjects() {
-        LinkedList<ScienceProject> scienceProjectPool;
-        scienceProjectPool = new LinkedList<>();
-        scienceProjectPool.add(new ScienceProject(new int[]{3, 3, 0, 0, 3}));
-        scienceProjectPool.add(new ScienceProject(new int[]{0, 3, 3, 3, 0}));
-        scienceProjectPool.add(new ScienceProject(new int[]{3, 0, 0, 3, 3}));
-        scienceProjectPool.add(new ScienceProject(new int[]{0, 0, 4, 4, 0}));
-        scienceProjectPool.add(new ScienceProject(new int[]{0, 4, 4, 0, 0}));
-        scienceProjectPool.add(new ScienceProject(new int[]{0, 0, 0, 4, 4}));
-        scienceProjectPool.add(new ScienceProject(new int[]{4, 0, 0, 0, 4}));
-        scienceProjectPool.add(new ScienceProject(new int[]{3, 3, 3, 0, 0}));
-        scienceProjectPool.add(new ScienceProject(new int[]{0, 0, 3, 3, 3}));
-        scienceProjectPool.add(new ScienceProject(new int[]{4, 4, 0, 0, 0}));
-        Collections.shuffle(scienceProjectPool, random);
-
-        scienceProjects = new ArrayList<>(SCIENCE_PROJECTS_BY_LEAGUE_LEVEL[LEAGUE_LEVEL]);
-        for (int i = 0; i < SCIENCE_PROJECTS_BY_LEAGUE_LEVEL[LEAGUE_LEVEL]; ++i) {
+        LinkedList<ScienceProject> scienceProjectPool = new LinkedList<>();
+        for (int[] cost : SCIENCE_PROJECT_COSTS) {
+            scienceProjectPool.add(new ScienceProject(cost.clone()));
+        }
+        random.stream(RANDOM_SCIENCE_PROJECTS).shuffle(scienceProjectPool);
+
+        scienceProjects = new ArrayList<>(rules.scienceProjectCount);
+        for (int i = 0; i < rules.scienceProjectCount; ++i) {
             ScienceProject project = scienceProjectPool.pop();
             project.index = i;
             scienceProjects.add(project);
         }
+        remainingProjects = (1 << scienceProjects.size()) - 1;
+    }
+
+    private void initProjectProgress(PlayerData player) {
+        player.unmetRequirements = new int[scienceProjects.size()];
+        player.completableProjects = 0;
+        for (ScienceProject project : scienceProjects) {
+            int unmet = 0;
+            for (int i = 0; i < MOLECULE_TYPES.length; ++i) {
+                if (Molecules.get(player.expertise, i) < project.cost[i]) {
+                    unmet++;
+                }
+            }
+            player.unmetRequirements[project.index] = unmet;
+            if (unmet == 0) {
+                player.completableProjects |= 1 << project.index;
+            }
+        }
+    }
+
+    void expertiseGained(PlayerData player, MoleculeType type) {
+        int level = Molecules.get(player.expertise, type.index);
+        for (int bits = remainingProjects; bits != 0; bits &= bits - 1) {
+            int index = Integer.numberOfTrailingZeros(bits);
+            if (scienceProjects.get(index).cost[type.index] == level && --player.unmetRequirements[index] == 0) {
+                player.completableProjects |= 1 << index;
+            }
+        }
     }
 
     private void initSamplePool() {
@@ -412,146 +1218,32 @@ class Referee extends MultiReferee {
             LinkedList<Sample> cells = new LinkedList<Sample>();
             samplePool.add(cells);
         }
-        samplePool.get(0).add(new Sample(new int[]{0, 3, 0, 0, 0}, 01, MoleculeType.A));
-        samplePool.get(0).add(new Sample(new int[]{0, 0, 0, 2, 1}, 01, MoleculeType.A));
-        samplePool.get(0).add(new Sample(new int[]{0, 1, 1, 1, 1}, 01, MoleculeType.A));
-        samplePool.get(0).add(new Sample(new int[]{0, 2, 0, 0, 2}, 01, MoleculeType.A));
-        samplePool.get(0).add(new Sample(new int[]{0, 0, 4, 0, 0}, 10, MoleculeType.A));
-        samplePool.get(0).add(new Sample(new int[]{0, 1, 2, 1, 1}, 01, MoleculeType.A));
-        samplePool.get(0).add(new Sample(new int[]{0, 2, 2, 0, 1}, 01, MoleculeType.A));
-        samplePool.get(0).add(new Sample(new int[]{3, 1, 0, 0, 1}, 01, MoleculeType.A));
-        samplePool.get(0).add(new Sample(new int[]{1, 0, 0, 0, 2}, 01, MoleculeType.B));
-        samplePool.get(0).add(new Sample(new int[]{0, 0, 0, 0, 3}, 01, MoleculeType.B));
-        samplePool.get(0).add(new Sample(new int[]{1, 0, 1, 1, 1}, 01, MoleculeType.B));
-        samplePool.get(0).add(new Sample(new int[]{0, 0, 2, 0, 2}, 01, MoleculeType.B));
-        samplePool.get(0).add(new Sample(new int[]{0, 0, 0, 4, 0}, 10, MoleculeType.B));
-        samplePool.get(0).add(new Sample(new int[]{1, 0, 1, 2, 1}, 01, MoleculeType.B));
-        samplePool.get(0).add(new Sample(new int[]{1, 0, 2, 2, 0}, 01, MoleculeType.B));
-        samplePool.get(0).add(new Sample(new int[]{0, 1, 3, 1, 0}, 01, MoleculeType.B));
-        samplePool.get(0).add(new Sample(new int[]{2, 1, 0, 0, 0}, 01, MoleculeType.C));
-        samplePool.get(0).add(new Sample(new int[]{0, 0, 0, 3, 0}, 01, MoleculeType.C));
-        samplePool.get(0).add(new Sample(new int[]{1, 1, 0, 1, 1}, 01, MoleculeType.C));
-        samplePool.get(0).add(new Sample(new int[]{0, 2, 0, 2, 0}, 01, MoleculeType.C));
-        samplePool.get(0).add(new Sample(new int[]{0, 0, 0, 0, 4}, 10, MoleculeType.C));
-        samplePool.get(0).add(new Sample(new int[]{1, 1, 0, 1, 2}, 01, MoleculeType.C));
-        samplePool.get(0).add(new Sample(new int[]{0, 1, 0, 2, 2}, 01, MoleculeType.C));
-        samplePool.get(0).add(new Sample(new int[]{1, 3, 1, 0, 0}, 01, MoleculeType.C));
-        samplePool.get(0).add(new Sample(new int[]{0, 2, 1, 0, 0}, 01, MoleculeType.D));
-        samplePool.get(0).add(new Sample(new int[]{3, 0, 0, 0, 0}, 01, MoleculeType.D));
-        samplePool.get(0).add(new Sample(new int[]{1, 1, 1, 0, 1}, 01, MoleculeType.D));
-        samplePool.get(0).add(new Sample(new int[]{2, 0, 0, 2, 0}, 01, MoleculeType.D));
-        samplePool.get(0).add(new Sample(new int[]{4, 0, 0, 0, 0}, 10, MoleculeType.D));
-        samplePool.get(0).add(new Sample(new int[]{2, 1, 1, 0, 1}, 01, MoleculeType.D));
-        samplePool.get(0).add(new Sample(new int[]{2, 0, 1, 0, 2}, 01, MoleculeType.D));
-        samplePool.get(0).add(new Sample(new int[]{1, 0, 0, 1, 3}, 01, MoleculeType.D));
-        samplePool.get(0).add(new Sample(new int[]{0, 0, 2, 1, 0}, 01, MoleculeType.E));
-        samplePool.get(0).add(new Sample(new int[]{0, 0, 3, 0, 0}, 01, MoleculeType.E));
-        samplePool.get(0).add(new Sample(new int[]{1, 1, 1, 1, 0}, 01, MoleculeType.E));
-        samplePool.get(0).add(new Sample(new int[]{2, 0, 2, 0, 0}, 01, MoleculeType.E));
-        samplePool.get(0).add(new Sample(new int[]{0, 4, 0, 0, 0}, 10, MoleculeType.E));
-        samplePool.get(0).add(new Sample(new int[]{1, 2, 1, 1, 0}, 01, MoleculeType.E));
-        samplePool.get(0).add(new Sample(new int[]{2, 2, 0, 1, 0}, 01, MoleculeType.E));
-        samplePool.get(0).add(new Sample(new int[]{0, 0, 1, 3, 1}, 01, MoleculeType.E));
-        samplePool.get(1).add(new Sample(new int[]{0, 0, 0, 5, 0}, 20, MoleculeType.A));
-        samplePool.get(1).add(new Sample(new int[]{6, 0, 0, 0, 0}, 30, MoleculeType.A));
-        samplePool.get(1).add(new Sample(new int[]{0, 0, 3, 2, 2}, 10, MoleculeType.A));
-        samplePool.get(1).add(new Sample(new int[]{0, 0, 1, 4, 2}, 20, MoleculeType.A));
-        samplePool.get(1).add(new Sample(new int[]{2, 3, 0, 3, 0}, 10, MoleculeType.A));
-        samplePool.get(1).add(new Sample(new int[]{0, 0, 0, 5, 3}, 20, MoleculeType.A));
-        samplePool.get(1).add(new Sample(new int[]{0, 5, 0, 0, 0}, 20, MoleculeType.B));
-        samplePool.get(1).add(new Sample(new int[]{0, 6, 0, 0, 0}, 30, MoleculeType.B));
-        samplePool.get(1).add(new Sample(new int[]{0, 2, 2, 3, 0}, 10, MoleculeType.B));
-        samplePool.get(1).add(new Sample(new int[]{2, 0, 0, 1, 4}, 20, MoleculeType.B));
-        samplePool.get(1).add(new Sample(new int[]{0, 2, 3, 0, 3}, 20, MoleculeType.B));
-        samplePool.get(1).add(new Sample(new int[]{5, 3, 0, 0, 0}, 20, MoleculeType.B));
-        samplePool.get(1).add(new Sample(new int[]{0, 0, 5, 0, 0}, 20, MoleculeType.C));
-        samplePool.get(1).add(new Sample(new int[]{0, 0, 6, 0, 0}, 30, MoleculeType.C));
-        samplePool.get(1).add(new Sample(new int[]{2, 3, 0, 0, 2}, 10, MoleculeType.C));
-        samplePool.get(1).add(new Sample(new int[]{3, 0, 2, 3, 0}, 10, MoleculeType.C));
-        samplePool.get(1).add(new Sample(new int[]{4, 2, 0, 0, 1}, 20, MoleculeType.C));
-        samplePool.get(1).add(new Sample(new int[]{0, 5, 3, 0, 0}, 20, MoleculeType.C));
-        samplePool.get(1).add(new Sample(new int[]{5, 0, 0, 0, 0}, 20, MoleculeType.D));
-        samplePool.get(1).add(new Sample(new int[]{0, 0, 0, 6, 0}, 30, MoleculeType.D));
-        samplePool.get(1).add(new Sample(new int[]{2, 0, 0, 2, 3}, 10, MoleculeType.D));
-        samplePool.get(1).add(new Sample(new int[]{1, 4, 2, 0, 0}, 20, MoleculeType.D));
-        samplePool.get(1).add(new Sample(new int[]{0, 3, 0, 2, 3}, 10, MoleculeType.D));
-        samplePool.get(1).add(new Sample(new int[]{3, 0, 0, 0, 5}, 20, MoleculeType.D));
-        samplePool.get(1).add(new Sample(new int[]{0, 0, 0, 0, 5}, 20, MoleculeType.E));
-        samplePool.get(1).add(new Sample(new int[]{0, 0, 0, 0, 6}, 30, MoleculeType.E));
-        samplePool.get(1).add(new Sample(new int[]{3, 2, 2, 0, 0}, 10, MoleculeType.E));
-        samplePool.get(1).add(new Sample(new int[]{0, 1, 4, 2, 0}, 20, MoleculeType.E));
-        samplePool.get(1).add(new Sample(new int[]{3, 0, 3, 0, 2}, 10, MoleculeType.E));
-        samplePool.get(1).add(new Sample(new int[]{0, 0, 5, 3, 0}, 20, MoleculeType.E));
-        samplePool.get(2).add(new Sample(new int[]{0, 0, 0, 0, 7}, 40, MoleculeType.A));
-        samplePool.get(2).add(new Sample(new int[]{3, 0, 0, 0, 7}, 50, MoleculeType.A));
-        samplePool.get(2).add(new Sample(new int[]{3, 0, 0, 3, 6}, 40, MoleculeType.A));
-        samplePool.get(2).add(new Sample(new int[]{0, 3, 3, 5, 3}, 30, MoleculeType.A));
-        samplePool.get(2).add(new Sample(new int[]{7, 0, 0, 0, 0}, 40, MoleculeType.B));
-        samplePool.get(2).add(new Sample(new int[]{7, 3, 0, 0, 0}, 50, MoleculeType.B));
-        samplePool.get(2).add(new Sample(new int[]{6, 3, 0, 0, 3}, 40, MoleculeType.B));
-        samplePool.get(2).add(new Sample(new int[]{3, 0, 3, 3, 5}, 30, MoleculeType.B));
-        samplePool.get(2).add(new Sample(new int[]{0, 7, 0, 0, 0}, 40, MoleculeType.C));
-        samplePool.get(2).add(new Sample(new int[]{0, 7, 3, 0, 0}, 50, MoleculeType.C));
-        samplePool.get(2).add(new Sample(new int[]{3, 6, 3, 0, 0}, 40, MoleculeType.C));
-        samplePool.get(2).add(new Sample(new int[]{5, 3, 0, 3, 3}, 30, MoleculeType.C));
-        samplePool.get(2).add(new Sample(new int[]{0, 0, 7, 0, 0}, 40, MoleculeType.D));
-        samplePool.get(2).add(new Sample(new int[]{0, 0, 7, 3, 0}, 50, MoleculeType.D));
-        samplePool.get(2).add(new Sample(new int[]{0, 3, 6, 3, 0}, 40, MoleculeType.D));
-        samplePool.get(2).add(new Sample(new int[]{3, 5, 3, 0, 3}, 30, MoleculeType.D));
-        samplePool.get(2).add(new Sample(new int[]{0, 0, 0, 7, 0}, 40, MoleculeType.E));
-        samplePool.get(2).add(new Sample(new int[]{0, 0, 0, 7, 3}, 50, MoleculeType.E));
-        samplePool.get(2).add(new Sample(new int[]{0, 0, 3, 6, 3}, 40, MoleculeType.E));
-        samplePool.get(2).add(new Sample(new int[]{3, 3, 5, 3, 0}, 30, MoleculeType.E));
+        for (SampleCard card : rules.deck) {
+            samplePool.get(card.rank).add(new Sample(card.cost, card.life, card.gain));
+        }
 
         for (int rank = 0; rank < SAMPLE_RANK_COUNT; ++rank) {
-            Collections.shuffle(samplePool.get(rank), random);
+            random.stream(RANDOM_SAMPLES + rank).shuffle(samplePool.get(rank));
         }
 
     }
 
     private void initDiagnonisModule() {
-        for (int i = 0; i < INIT_DIAGNOSED_SAMPLES_BY_LEAGUE_LEVEL[LEAGUE_LEVEL]; i++) {
+        for (int i = 0; i < rules.initDiagnosedSamples; i++) {
             int rank = 0;
             Sample sample = samplePool.get(rank).pop();
             samplePool.get(rank).add(sample.clone());
 
-            sample.id = Sample.ENTITY_COUNT++;
+            sample.id = entityCount++;
             sample.rank = rank;
             sample.setDiscovered(true);
-            if (LEAGUE_LEVEL <= 1) {
+            if (!rules.sampleGainEnabled) {
                 sample.expertise = null;
             }
             storedSamples.add(sample);
         }
     }
 
-    private void initMap() {
-        distances = new HashMap<>();
-        if (LEAGUE_LEVEL >= 2) {
-            distances.put(new ModulePair(Module.START_POS, Module.SAMPLES), 2);
-            distances.put(new ModulePair(Module.START_POS, Module.DIAGNOSIS), 2);
-            distances.put(new ModulePair(Module.START_POS, Module.MOLECULES), 2);
-            distances.put(new ModulePair(Module.START_POS, Module.LABORATORY), 2);
-            distances.put(new ModulePair(Module.SAMPLES, Module.DIAGNOSIS), 3);
-            distances.put(new ModulePair(Module.SAMPLES, Module.MOLECULES), 3);
-            distances.put(new ModulePair(Module.SAMPLES, Module.LABORATORY), 3);
-            distances.put(new ModulePair(Module.DIAGNOSIS, Module.MOLECULES), 3);
-            distances.put(new ModulePair(Module.DIAGNOSIS, Module.LABORATORY), 4);
-            distances.put(new ModulePair(Module.MOLECULES, Module.LABORATORY), 3);
-        } else {
-            distances.put(new ModulePair(Module.START_POS, Module.SAMPLES), 1);
-            distances.put(new ModulePair(Module.START_POS, Module.DIAGNOSIS), 1);
-            distances.put(new ModulePair(Module.START_POS, Module.MOLECULES), 1);
-            distances.put(new ModulePair(Module.START_POS, Module.LABORATORY), 1);
-            distances.put(new ModulePair(Module.SAMPLES, Module.DIAGNOSIS), 1);
-            distances.put(new ModulePair(Module.SAMPLES, Module.MOLECULES), 1);
-            distances.put(new ModulePair(Module.SAMPLES, Module.LABORATORY), 1);
-            distances.put(new ModulePair(Module.DIAGNOSIS, Module.MOLECULES), 1);
-            distances.put(new ModulePair(Module.DIAGNOSIS, Module.LABORATORY), 1);
-            distances.put(new ModulePair(Module.MOLECULES, Module.LABORATORY), 1);
-        }
-    }
-
     @Override
     protected Properties getConfiguration() {
         Properties prop = new Properties();
@@ -572,52 +1264,112 @@ class Referee extends MultiReferee {
 
     @Override
     protected void prepare(int round) {
+        observation = null;
+        clearEvents();
+        for (PlayerData player : players) {
+            player.reset();
+        }
+    }
+
+    private void clearEvents() {
         transfers.clear();
+        productionTransfers.clear();
+        sampleTransfers.clear();
+        resourceTransfers.clear();
         diagnoses.clear();
         cloudRequests.clear();
         projectCompletions.clear();
-        for (PlayerData player : players) {
-            player.reset();
-        }
     }
 
-    @Override
-    protected String[] getInputForPlayer(int round, int playerIdx) {
-        List<String> lines = new ArrayList<>();
-        List<String> sampleLines = new ArrayList<>();
-
-        Stream<PlayerData> a = players.stream().filter(p -> (p.index == playerIdx));
-        Stream<PlayerData> b = players.stream().filter(p -> (p.index != playerIdx));
-        List<PlayerData> reordered = Stream.concat(a, b).collect(Collectors.toList());
-        reordered.stream().forEachOrdered(player -> {
-            StringJoiner sj = new StringJoiner(" ");
-            sj.add(player.target.name());
-            sj.add(String.valueOf(player.eta));
-            sj.add(String.valueOf(player.score));
-            sj.add(resourceArrayToString(player.storage));
-            sj.add(resourceArrayToString(player.expertise));
-
-            for (Sample sample : player.tray) {
-                int carrier = player.index == playerIdx ? 0 : 1;
-                if (sample.isDiscovered()) {
-                    sampleLines.add(join(sample.id, carrier, sample.rank + 1, sample.getGainChar(), sample.life, resourceArrayToString(sample.cost)));
-                } else {
-                    sampleLines.add(join(sample.id, carrier, sample.rank + 1, "0 -1 -1 -1 -1 -1 -1"));
+    /**
+     * The input lines of a round, serialized once for all players: each player's input is the same lines in another
+     * order, except for the carrier of the samples in the players' trays.
+     */
+    private static final class Observation {
+        final String[] playerLines;
+        // [player][carrier], carrier 0 when the player reads its own tray and 1 when an opponent reads it
+        final String[][][] trayLines;
+        final String[] storedSampleLines;
+        final String moleculeLine, sampleCount;
+        final int lineCount;
+
+        Observation(Referee referee) {
+            int count = referee.storedSamples.size();
+            playerLines = new String[referee.players.size()];
+            trayLines = new String[playerLines.length][2][];
+            for (PlayerData player : referee.players) {
+                StringJoiner sj = new StringJoiner(" ");
+                sj.add(player.target.name());
+                sj.add(String.valueOf(player.eta));
+                sj.add(String.valueOf(player.score));
+                sj.add(Molecules.toString(player.storage));
+                sj.add(Molecules.toString(player.expertise));
+                playerLines[player.index] = sj.toString();
+
+                for (int carrier = 0; carrier < 2; ++carrier) {
+                    String[] lines = new String[player.tray.size()];
+                    int i = 0;
+                    for (Sample sample : player.tray) {
+                        if (sample.isDiscovered()) {
+                            lines[i++] = join(sample.id, carrier, sample.rank + 1, sample.getGainChar(), sample.life, referee.resourceArrayToString(sample.cost));
+                        } else {
+                            lines[i++] = join(sample.id, carrier, sample.rank + 1, "0 -1 -1 -1 -1 -1 -1");
+                        }
+                    }
+                    trayLines[player.index][carrier] = lines;
                 }
+                count += player.tray.size();
             }
-            lines.add(sj.toString());
-        });
-
-        for (Sample sample : storedSamples) {
-            sampleLines.add(join(sample.id, -1, sample.rank + 1, sample.getGainChar(), sample.life, resourceArrayToString(sample.cost)));
-        }
 
-        lines.add(Arrays.stream(MoleculeType.values()).map(type -> String.valueOf(Math.max(0, molecules.get(type)))).collect(Collectors.joining(" ")));
-        lines.add(String.valueOf(sampleLines.size()));
-        lines.addAll(sampleLines);
+            storedSampleLines = new String[referee.storedSamples.size()];
+            int i = 0;
+            for (Sample sample : referee.storedSamples) {
+                storedSampleLines[i++] = join(sample.id, -1, sample.rank + 1, sample.getGainChar(), sample.life, referee.resourceArrayToString(sample.cost));
+            }
 
-        return lines.toArray(new String[lines.size()]);
+            StringJoiner molecules = new StringJoiner(" ");
+            for (int molecule : referee.molecules) {
+                molecules.add(String.valueOf(Math.max(0, molecule)));
+            }
+            moleculeLine = molecules.toString();
+            sampleCount = String.valueOf(count);
+            lineCount = playerLines.length + 2 + count;
+        }
+
+        String[] forPlayer(int playerIdx) {
+            String[] lines = new String[lineCount];
+            int line = 0;
+            lines[line++] = playerLines[playerIdx];
+            for (int p = 0; p < playerLines.length; ++p) {
+                if (p != playerIdx) {
+                    lines[line++] = playerLines[p];
+                }
+            }
+            lines[line++] = moleculeLine;
+            lines[line++] = sampleCount;
+            for (String sample : trayLines[playerIdx][0]) {
+                lines[line++] = sample;
+            }
+            for (int p = 0; p < trayLines.length; ++p) {
+                if (p != playerIdx) {
+                    for (String sample : trayLines[p][1]) {
+                        lines[line++] = sample;
+                    }
+                }
+            }
+            for (String sample : storedSampleLines) {
+                lines[line++] = sample;
+            }
+            return lines;
+        }
+    }
 
+    @Override
+    protected String[] getInputForPlayer(int round, int playerIdx) {
+        if (observation == null) {
+            observation = new Observation(this);
+        }
+        return observation.forPlayer(playerIdx);
     }
 
     @Override
@@ -625,220 +1377,325 @@ class Referee extends MultiReferee {
         return 1;
     }
 
+    /**
+     * Why an action is refused. Actions are checked without throwing, so that a bot sending invalid actions costs no
+     * more than one sending valid ones; handlePlayerOutput turns the refusal into the same loss the referee always
+     * reported.
+     */
+    enum Refusal {
+        INVALID_INPUT(null), BAD_SAMPLE_RANK("badSampleRank"), UNKNOWN_MOLECULE_TYPE("unknownMoleculeType"), CONNECT_TO_NOTHING("connectToNothing"),
+        NULL_IS_INVALID_SAMPLE("nullIsInvalidSample"), CANNOT_AFFORD_SAMPLE("cannotAffordSample"), SAMPLE_NOT_IN_TRAY("sampleNotInTray"),
+        SAMPLE_NOT_FOUND("sampleNotFound"), TRAY_IS_FULL("trayIsFull"), NOT_ENOUGH_MOLECULES("notEnoughMolecules"), STORAGE_IS_FULL("storageIsFull");
+
+        final String reasonCode;
+
+        private Refusal(String reasonCode) {
+            this.reasonCode = reasonCode;
+        }
+    }
+
+    private static final Object[] NO_VALUES = {};
+    // The values of the last refusal's message
+    private Object[] refusalValues = NO_VALUES;
+
+    private Refusal refuse(Refusal refusal, Object... values) {
+        refusalValues = values;
+        return refusal;
+    }
+
     @Override
     protected void handlePlayerOutput(int frame, int round, int playerIdx, String[] outputs) throws WinException, LostException, InvalidInputException {
         String line = outputs[0];
         PlayerData player = players.get(playerIdx);
+        observation = null;
+        Object event = EVENTS == null ? null : EVENTS.actionStarted();
 
+        Refusal refusal;
         try {
-            if (player.isMoving()) {
-                player.setMessage(line);
-                return;
+            refusal = handleAction(player, line);
+        } catch (Exception e) {
+            refusal = Refusal.INVALID_INPUT;
+        }
+        if (refusal == null) {
+            if (event != null) {
+                EVENTS.actionEnded(event, seed, round, playerIdx, line, "OK", null);
             }
+            return;
+        }
+        // The exception is not preallocated: it carries this action's line or message values, and a refused player dies,
+        // so a game builds at most one per player
+        player.die(round);
+        if (refusal == Refusal.INVALID_INPUT) {
+            InvalidInputException invalid = new InvalidInputException(rules.expected, line);
+            if (event != null) {
+                EVENTS.actionEnded(event, seed, round, playerIdx, line, refusal.name(), invalid.getReason());
+            }
+            throw invalid;
+        }
+        LostException lost = new LostException(refusal.reasonCode, refusalValues);
+        lost.setTooltipCode("InvalidConnect");
+        if (event != null) {
+            EVENTS.actionEnded(event, seed, round, playerIdx, line, refusal.name(), lost.getReason());
+        }
+        throw lost;
+    }
 
-            Matcher match = PLAYER_MOVE_PATTERN.matcher(line);
-            if (match.matches()) {
-                // Movement
-                String module = match.group("module");
+    /**
+     * @return null if the action is accepted
+     */
+    private Refusal handleAction(PlayerData player, String line) {
+        if (player.isMoving()) {
+            player.setMessage(line);
+            return null;
+        }
 
-                Module target = Module.valueOf(module.toUpperCase());
-                if (target == Module.SAMPLES && LEAGUE_LEVEL == 0) {
-                    throw new InvalidInputException(EXPECTED_BY_LEAGUE_LEVEL[LEAGUE_LEVEL], line);
-                }
+        Matcher match = ActionPatterns.PLAYER_MOVE_PATTERN.matcher(line);
+        if (match.matches()) {
+            // Movement
+            String module = match.group("module");
 
-                if (player.target != target) {
-                    player.from = player.target;
-                    player.target = target;
-                    player.eta = distances.get(new ModulePair(player.target, player.from));
-                }
+            Module target = Module.valueOf(module.toUpperCase());
+            if (target == Module.SAMPLES && !rules.samplesModuleEnabled) {
+                return Refusal.INVALID_INPUT;
+            }
 
-                // Message
-                matchMessage(player, match);
-                return;
+            if (player.target != target) {
+                player.from = player.target;
+                player.target = target;
+                player.eta = rules.distance(player.target, player.from);
             }
 
-            match = PLAYER_USE_PATTERN.matcher(line);
-            if (match.matches()) {
-                // Connect to machine
-                String data = match.group("data");
-                player.attemptConnection = true;
-                player.connectionData = data;
+            // Message
+            matchMessage(player, match);
+            return null;
+        }
 
-                connectToMachine(player, data);
+        match = ActionPatterns.PLAYER_USE_PATTERN.matcher(line);
+        if (match.matches()) {
+            // Connect to machine
+            String data = match.group("data");
+            player.attemptConnection = true;
+            player.connectionData = data;
 
-                // Message
-                matchMessage(player, match);
-                return;
+            Refusal refusal = connectToMachine(player, data);
+            if (refusal != null) {
+                return refusal;
             }
 
-            match = PLAYER_WAIT_PATTERN.matcher(line);
-            if (match.matches()) {
-                // Message
-                matchMessage(player, match);
-                return;
+            // Message
+            matchMessage(player, match);
+            return null;
+        }
+
+        match = ActionPatterns.PLAYER_WAIT_PATTERN.matcher(line);
+        if (match.matches()) {
+            // Message
+            matchMessage(player, match);
+            return null;
+        }
+
+        return Refusal.INVALID_INPUT;
+    }
+
+    private Refusal connectToMachine(PlayerData player, String data) {
+        switch (player.target) {
+            case SAMPLES: {
+                Integer rank = parseInteger(data);
+                if (rank == null) {
+                    return refuse(Refusal.BAD_SAMPLE_RANK, data);
+                }
+                return requestSample(player, rank);
+            }
+            case MOLECULES:
+                MoleculeType molecule = parseMoleculeType(data);
+                if (molecule == null) {
+                    return refuse(Refusal.UNKNOWN_MOLECULE_TYPE, data != null ? data : "");
+                }
+                return requestMolecule(player, molecule);
+            case DIAGNOSIS: {
+                Integer id = parseInteger(data);
+                return id == null ? Refusal.INVALID_INPUT : requestDiagnosis(player, id);
+            }
+            case LABORATORY: {
+                Integer id = parseInteger(data);
+                return id == null ? Refusal.INVALID_INPUT : requestProduction(player, id);
             }
+            case START_POS:
+                return refuse(Refusal.CONNECT_TO_NOTHING);
+            default:
+                return null;
+        }
+    }
 
-            throw new InvalidInputException(EXPECTED_BY_LEAGUE_LEVEL[LEAGUE_LEVEL], line);
+    /**
+     * @return the value Integer.valueOf would return, or null where it would throw
+     */
+    static Integer parseInteger(String data) {
+        if (data == null || data.isEmpty()) {
+            return null;
+        }
+        boolean negative = data.charAt(0) == '-';
+        int start = negative || data.charAt(0) == '+' ? 1 : 0;
+        if (start == data.length()) {
+            return null;
+        }
+        long value = 0;
+        for (int i = start; i < data.length(); ++i) {
+            int digit = Character.digit(data.charAt(i), 10);
+            if (digit < 0) {
+                return null;
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L) {
+                return null;
+            }
+        }
+        value = negative ? -value : value;
+        return value > Integer.MAX_VALUE ? null : Integer.valueOf((int) value);
+    }
 
-        } catch (LostException | InvalidInputException e) {
-            player.die(round);
-            throw e;
-        } catch (Exception e) {
-            player.die(round);
-            throw new InvalidInputException(EXPECTED_BY_LEAGUE_LEVEL[LEAGUE_LEVEL], line);
+    /**
+     * @return the type MoleculeType.valueOf(data.toUpperCase()) would return, or null where it would throw
+     */
+    private static MoleculeType parseMoleculeType(String data) {
+        if (data == null) {
+            return null;
         }
+        for (MoleculeType type : MOLECULE_TYPES) {
+            if (type.name().equals(data.toUpperCase())) {
+                return type;
+            }
+        }
+        return null;
     }
 
-    private void connectToMachine(PlayerData player, String data) throws LostException {
-        try {
-            switch (player.target) {
-                case SAMPLES:
-                    try {
-                        requestSample(player, Integer.valueOf(data));
-                    } catch (NumberFormatException e) {
-                        throw new LostException("badSampleRank", data);
-                    }
-                    break;
-                case MOLECULES:
-                    MoleculeType molecule;
-                    try {
-                        molecule = MoleculeType.valueOf(data.toUpperCase());
-                    } catch (Exception e) {
-                        throw new LostException("unknownMoleculeType", data != null ? data : "");
-                    }
-                    requestMolecule(player, molecule);
-                    break;
-                case DIAGNOSIS:
-                    requestDiagnosis(player, Integer.valueOf(data));
-                    break;
-                case LABORATORY:
-                    requestProduction(player, Integer.valueOf(data));
-                    break;
-                case START_POS:
-                    throw new LostException("connectToNothing");
-                default:
-                    break;
-            }
-        } catch (LostException le) {
-            le.setTooltipCode("InvalidConnect");
-            throw le;
-        }
-    }
-
-    private void requestProduction(PlayerData player, Integer data) throws LostException {
+    private Refusal requestProduction(PlayerData player, Integer data) {
         if (data == null) {
-            throw new LostException("nullIsInvalidSample");
+            return refuse(Refusal.NULL_IS_INVALID_SAMPLE);
         }
 
-        Optional<Sample> target = player.tray.stream().filter(sample -> data.equals(sample.id)).findFirst();
-        if (target.isPresent()) {
-            Sample sample = target.get();
-            if (canAfford(player, sample.cost)) {
-                transfers.add(new ProductionTransfer(player, sample));
-                return;
+        Sample sample = findSample(player.tray, data);
+        if (sample != null) {
+            if (canAfford(player, sample.packedCost)) {
+                transfers.add(productionTransfers.add().set(player, sample));
+                return null;
             }
-            throw new LostException("cannotAffordSample", data);
+            return refuse(Refusal.CANNOT_AFFORD_SAMPLE, data);
         }
-        throw new LostException("sampleNotInTray", data);
+        return refuse(Refusal.SAMPLE_NOT_IN_TRAY, data);
     }
 
-    private boolean canAfford(PlayerData player, int[] cost) {
-        for (int i = 0; i < MoleculeType.values().length; ++i) {
-            if (player.expertise[i] + player.storage[i] < cost[i]) {
-                return false;
+    private static Sample findSample(List<Sample> samples, int id) {
+        for (Sample sample : samples) {
+            if (sample.id == id) {
+                return sample;
             }
         }
-        return true;
+        return null;
+    }
+
+    boolean canAfford(PlayerData player, long cost) {
+        return Molecules.covers(player.expertise + player.storage, cost);
     }
 
-    private void requestDiagnosis(PlayerData player, Integer data) throws LostException {
+    private Refusal requestDiagnosis(PlayerData player, Integer data) {
         if (data == null) {
-            throw new LostException("nullIsInvalidSample");
+            return refuse(Refusal.NULL_IS_INVALID_SAMPLE);
         }
 
-        Optional<Sample> target = player.tray.stream().filter(sample -> data.equals(sample.id)).findFirst();
+        Sample sample = findSample(player.tray, data);
 
-        if (target.isPresent()) {
-            Sample sample = target.get();
+        if (sample != null) {
             if (sample.isDiscovered()) {
-                transfers.add(new SampleTransfer(player, sample, Bound.TO_DIAGNOSIS));
-                return;
+                transfers.add(sampleTransfers.add().set(player, sample, Bound.TO_DIAGNOSIS));
+                return null;
             } else if (!sample.isDiscovered()) {
                 // Diagnose
-                diagnoses.add(new Diagnosis(player, sample));
+                diagnoses.add().set(player, sample);
                 sample.setDiscovered(true);
                 sample.discoveredBy = player;
-                return;
+                return null;
             }
         } else {
-            target = storedSamples.stream().filter(sample -> data.equals(sample.id)).findFirst();
-            if (!target.isPresent()) {
-                throw new LostException("sampleNotFound", data);
+            sample = findSample(storedSamples, data);
+            if (sample == null) {
+                return refuse(Refusal.SAMPLE_NOT_FOUND, data);
             }
-            if (player.tray.size() >= MAX_TRAY) {
-                throw new LostException("trayIsFull");
+            if (player.tray.size() >= rules.maxTray) {
+                return refuse(Refusal.TRAY_IS_FULL);
             }
-            Sample sample = target.get();
-            SampleTransfer transfer = new SampleTransfer(player, sample, Bound.FROM_DIAGNOSIS);
 
-            if (cloudRequests.get(sample) == null || transfer.player == sample.discoveredBy) {
-                cloudRequests.put(sample, transfer);
-            } else if (LEAGUE_LEVEL == 0) {
+            if (cloudRequests.get(sample) == null || player == sample.discoveredBy) {
+                cloudRequests.put(sample, sampleTransfers.add().set(player, sample, Bound.FROM_DIAGNOSIS));
+            } else if (rules.cloneContestedDownloads) {
                 Sample clonedSample = sample.clone();
-                clonedSample.id = Sample.ENTITY_COUNT++;
+                clonedSample.id = entityCount++;
                 clonedSample.setDiscovered(true);
+                SampleTransfer transfer = sampleTransfers.add().set(player, sample, Bound.FROM_DIAGNOSIS);
                 transfer.setClone(clonedSample);
                 cloudRequests.put(clonedSample, transfer);
             }
         }
-
+        return null;
     }
 
-    private void requestMolecule(PlayerData player, MoleculeType type) throws LostException {
-        if (molecules.get(type) <= 0) {
-            throw new LostException("notEnoughMolecules", type.name());
+    private Refusal requestMolecule(PlayerData player, MoleculeType type) {
+        if (molecules[type.index] <= 0) {
+            return refuse(Refusal.NOT_ENOUGH_MOLECULES, type.name());
         }
-        if (Arrays.stream(player.storage).sum() >= MAX_STORAGE) {
-            throw new LostException("storageIsFull");
+        if (Molecules.total(player.storage) >= rules.maxStorage) {
+            return refuse(Refusal.STORAGE_IS_FULL);
         }
-        transfers.add(new ResourceTransfer(player, type));
+        transfers.add(resourceTransfers.add().set(player, type));
+        return null;
     }
 
-    private void requestSample(PlayerData player, int rank) throws LostException {
-        if (player.tray.size() >= MAX_TRAY) {
-            throw new LostException("trayIsFull");
+    private Refusal requestSample(PlayerData player, int rank) {
+        if (player.tray.size() >= rules.maxTray) {
+            return refuse(Refusal.TRAY_IS_FULL);
         }
 
-        if (rank < 1 || rank > 3) {
-            // throw new LostException("badSampleRank", String.valueOf(rank));
+        if (rank < 1 || rank > samplePool.size()) {
+            // There is no such deck to draw from
+            return Refusal.INVALID_INPUT;
         }
 
         Sample sample = samplePool.get(rank - 1).pop();
         // Just recycle it right back in there.
         samplePool.get(rank - 1).add(sample.clone());
 
-        sample.id = Sample.ENTITY_COUNT++;
+        sample.id = entityCount++;
         sample.rank = rank - 1;
         sample.setDiscovered(false);
 
-        if (LEAGUE_LEVEL <= 1) {
+        if (!rules.sampleGainEnabled) {
             sample.expertise = null;
         }
 
-        transfers.add(new SampleTransfer(player, sample, Bound.FROM_SAMPLES));
-
+        transfers.add(sampleTransfers.add().set(player, sample, Bound.FROM_SAMPLES));
+        return null;
     }
 
     private void matchMessage(PlayerData player, Matcher match) {
         player.setMessage(match.group("message"));
     }
 
-    public double distance(Point a, Point b) {
-        return Math.sqrt(Math.pow(b.x - a.x, 2) + Math.pow(b.y - a.y, 2));
-    }
-
     @Override
     protected void updateGame(int round) throws GameOverException {
+        observation = null;
+        if (EVENTS == null) {
+            resolveRound(round);
+            return;
+        }
+        Object event = EVENTS.roundStarted();
+        try {
+            resolveRound(round);
+        } finally {
+            EVENTS.roundEnded(event, seed, round, transfers.size());
+        }
+    }
+
+    private void resolveRound(int round) throws GameOverException {
         // Move players
         for (PlayerData player : players) {
             if (player.eta != 0) {
@@ -848,48 +1705,52 @@ class Referee extends MultiReferee {
         }
 
         // Perform transfers
-        for (SampleTransfer transfer : cloudRequests.values()) {
-            transfers.add(transfer);
+        for (int i = 0; i < cloudRequests.size(); ++i) {
+            transfers.add(cloudRequests.get(i));
         }
-        for (Transfer transfer : transfers) {
-            transfer.apply(this);
+        for (int i = 0; i < transfers.size(); ++i) {
+            transfers.get(i).apply(this);
         }
 
-        // Check for science projects
-        List<Runnable> removes = new LinkedList<>();
+        // Check for science projects, a project completed by both players this round scores for both
+        int completed = 0;
         for (PlayerData player : players) {
-            for (ScienceProject project : scienceProjects) {
-                if (completedProject(player, project)) {
-                    removes.add(() -> {
-                        scienceProjects.remove(project);
-                    });
-                    player.score += SCIENCE_PROJECT_VALUE;
-                    projectCompletions.add(new ProjectCompletion(player, project));
-                    addToolTip(player.index, translate("ProjectTooltip", player.index));
-                }
+            int projects = player.completableProjects & remainingProjects;
+            for (int bits = projects; bits != 0; bits &= bits - 1) {
+                ScienceProject project = scienceProjects.get(Integer.numberOfTrailingZeros(bits));
+                player.score += rules.scienceProjectValue;
+                projectCompletions.add().set(player, project);
+                addToolTip(player.index, translate("ProjectTooltip", player.index));
             }
-
+            completed |= projects;
         }
-        for (Runnable r : removes) {
-            r.run();
+        remainingProjects &= ~completed;
+
+        if (stats != null) {
+            recordStats(round);
         }
 
     }
 
-    private boolean completedProject(PlayerData player, ScienceProject project) {
-        for (int i = 0; i < project.cost.length; ++i) {
-            if (player.expertise[i] < project.cost[i]) {
-                return false;
-            }
+    private void recordStats(int round) {
+        for (int i = 0; i < transfers.size(); ++i) {
+            Transfer transfer = transfers.get(i);
+            stats.onEvent(transfer.player.index, transfer.getEvent(), transfer.getEventDetail());
         }
-        return true;
+        for (int i = 0; i < diagnoses.size(); ++i) {
+            stats.onEvent(diagnoses.get(i).player.index, EV_DIAGNOSE, 0);
+        }
+        for (int i = 0; i < projectCompletions.size(); ++i) {
+            stats.onProjectCompleted(projectCompletions.get(i).player.index);
+        }
+        stats.onRoundEnd(round, players.get(0).score, players.get(1).score);
     }
 
     @Override
     protected void populateMessages(Properties p) {
         p.put("notEnoughMolecules", "Invalid CONNECT: there are no %s type molecules left");
-        p.put("trayIsFull", "Invalid CONNECT: your robot may not carry data for more than " + MAX_TRAY + " samples");
-        p.put("storageIsFull", "Invalid CONNECT: your robot may not carry more than " + MAX_STORAGE + " molecules");
+        p.put("trayIsFull", "Invalid CONNECT: your robot may not carry data for more than " + rules.maxTray + " samples");
+        p.put("storageIsFull", "Invalid CONNECT: your robot may not carry more than " + rules.maxStorage + " molecules");
         p.put("nullIsInvalidSample", "Invalid CONNECT: you must specify a Sample ID to connect to this module");
         p.put("sampleNotFound", "Invalid CONNECT: the sample %d is not available");
         p.put("badSampleRank", "Invalid CONNECT: there is no sample with rank %s");
@@ -914,14 +1775,14 @@ class Referee extends MultiReferee {
         p.put("etaMOLECULESsingular", "$%d will arrive at the molecules module in %d turn");
         p.put("etaLABORATORYsingular", "$%d will arrive at the laboratory module in %d turn");
         p.put("diagnosis", "$%d has diagnosed sample %d");
-        p.put("projectCompletion", "$%d has completed the science project %d and scores " + SCIENCE_PROJECT_VALUE + " health points.");
+        p.put("projectCompletion", "$%d has completed the science project %d and scores " + rules.scienceProjectValue + " health points.");
 
     }
 
     @Override
     protected String[] getInitDataForView() {
         List<String> lines = new ArrayList<>();
-        lines.add(SCIENCE_PROJECT_VALUE + " " + LEAGUE_LEVEL);
+        lines.add(rules.scienceProjectValue + " " + rules.leagueLevel);
 
         lines.add(String.valueOf(scienceProjects.size()));
         for (ScienceProject project : scienceProjects) {
@@ -938,7 +1799,11 @@ class Referee extends MultiReferee {
     }
 
     private String resourceArrayToString(int[] array) {
-        return Arrays.stream(array).mapToObj(Integer::toString).collect(Collectors.joining(" "));
+        StringJoiner joiner = new StringJoiner(" ");
+        for (int value : array) {
+            joiner.add(String.valueOf(value));
+        }
+        return joiner.toString();
     }
 
     protected String[] getFrameDataForView(int round, int frame, boolean keyFrame) {
@@ -946,16 +1811,16 @@ class Referee extends MultiReferee {
 
         // Players
         for (PlayerData player : players) {
-            Integer total = distances.get(new ModulePair(player.target, player.from));
+            int total = rules.distance(player.target, player.from);
 
             StringJoiner joiner = new StringJoiner(" ");
             joiner.add(player.target.name());
             joiner.add(player.from.name());
             joiner.add(String.valueOf(player.eta));
             joiner.add(player.moved ? "1" : "0");
-            joiner.add((total == null) ? "0" : String.valueOf(total));
-            joiner.add(String.valueOf(resourceArrayToString(player.storage)));
-            joiner.add(String.valueOf(resourceArrayToString(player.expertise)));
+            joiner.add(String.valueOf(total));
+            joiner.add(Molecules.toString(player.storage));
+            joiner.add(Molecules.toString(player.expertise));
             joiner.add(String.valueOf(player.score));
             joiner.add(player.dead ? "1" : "0");
             joiner.add(";" + (player.message == null ? "" : player.message));
@@ -963,7 +1828,7 @@ class Referee extends MultiReferee {
         }
 
         // Resources
-        lines.add(Arrays.stream(MoleculeType.values()).map(type -> String.valueOf(molecules.get(type))).collect(Collectors.joining(" ")));
+        lines.add(resourceArrayToString(molecules));
 
         // Events
         List<String> eventLines = new LinkedList<>();
@@ -990,7 +1855,8 @@ class Referee extends MultiReferee {
                 eventLines.add(join(EV_PRODUCE, pt.sample.id));
             }
         }
-        for (Diagnosis diagnosis : diagnoses) {
+        for (int i = 0; i < diagnoses.size(); ++i) {
+            Diagnosis diagnosis = diagnoses.get(i);
             eventLines.add(join(EV_DIAGNOSE, diagnosis.sample.id));
         }
         lines.add(String.valueOf(eventLines.size()));
@@ -1001,7 +1867,11 @@ class Referee extends MultiReferee {
 
     @SafeVarargs
     static final <T> String join(T... v) {
-        return Stream.of(v).map(String::valueOf).collect(Collectors.joining(" "));
+        StringJoiner joiner = new StringJoiner(" ");
+        for (T value : v) {
+            joiner.add(String.valueOf(value));
+        }
+        return joiner.toString();
     }
 
     @Override
@@ -1070,7 +1940,8 @@ class Referee extends MultiReferee {
             }
         }
 
-        for (Diagnosis d : diagnoses) {
+        for (int i = 0; i < diagnoses.size(); ++i) {
+            Diagnosis d = diagnoses.get(i);
             if (d.player == player) {
                 lines.add(translate("diagnosis", playerIdx, d.sample.id));
             }
@@ -1080,7 +1951,8 @@ class Referee extends MultiReferee {
             lines.add(translate("eta" + player.target + (player.eta == 1 ? "singular" : ""), playerIdx, player.eta));
         }
 
-        for (ProjectCompletion projectCompletion : projectCompletions) {
+        for (int i = 0; i < projectCompletions.size(); ++i) {
+            ProjectCompletion projectCompletion = projectCompletions.get(i);
             if (projectCompletion.player == player) {
                 lines.add(translate("projectCompletion", playerIdx, projectCompletion.project.index));
             }
@@ -1098,24 +1970,39 @@ class Referee extends MultiReferee {
     protected void setPlayerTimeout(int frame, int round, int playerIdx) {
         PlayerData player = players.get(playerIdx);
         player.die(round);
+        observation = null;
     }
 
     @Override
     protected int getMaxRoundCount(int playerCount) {
-        return 200;
+        return rules.maxRounds;
     }
 
     @Override
     protected boolean gameOver() {
-        if (LEAGUE_LEVEL >= 3) {
+        if (!rules.scoreLimitEnabled) {
             return super.gameOver();
         } else {
-            return super.gameOver() || players.stream().anyMatch(p -> p.score >= MAX_SCORE);
+            if (super.gameOver()) {
+                return true;
+            }
+            for (PlayerData player : players) {
+                if (player.score >= rules.maxScore) {
+                    return true;
+                }
+            }
+            return false;
         }
     }
 
-    public static void main(String... args) throws IOException {
-        new Referee(System.in, System.out, System.err).start();
+    public static void main(String... args) throws Exception {
+        if (args.length > 0) {
+            Runner.main(args);
+            return;
+        }
+        Referee referee = new Referee(System.in, System.out, System.err, Rules.forLeague(LEAGUE_LEVEL).withSplitRandom("split".equals(System.getProperty("c4l.random"))));
+        referee.setPipelined(Boolean.getBoolean("c4l.pipeline"));
+        referee.start();
     }
 }
 
@@ -1154,7 +2041,6 @@ abstract class MultiReferee extends AbstractReferee {
 }
 
 abstract class AbstractReferee {
-    private static final Pattern HEADER_PATTERN = Pattern.compile("\\[\\[(?<cmd>.+)\\] ?(?<lineCount>[0-9]+)\\]");
     private static final String LOST_PARSING_REASON_CODE = "INPUT";
     private static final String LOST_PARSING_REASON = "Failure: invalid input";
 
@@ -1212,6 +2098,8 @@ abstract class AbstractReferee {
         private Object[] values;
 
         public GameException(String reasonCode, Object... values) {
+            // Game exceptions are the outcome of a turn, not a bug: skip the stack trace
+            super(null, null, false, false);
             this.reasonCode = reasonCode;
             this.values = values;
         }
@@ -1318,6 +2206,97 @@ abstract class AbstractReferee {
         }
     }
 
+    interface PlayerChannel extends Closeable {
+        void begin() throws IOException;
+
+        void sendInput(int playerIdx, String[] initLines, String[] lines) throws IOException;
+
+        /**
+         * @return the player's output lines, or null if the player did not answer in time
+         */
+        String[] readOutput(int playerIdx, int lineCount, int timeoutMillis) throws IOException;
+
+        void end(String ranking) throws IOException;
+
+        /**
+         * @return false if the player does not read its input, which then is neither built nor sent
+         */
+        default boolean wantsInput(int playerIdx) {
+            return true;
+        }
+
+        /**
+         * Receives what an agent inside the referee answered for the player, in place of a readOutput.
+         */
+        default void agentOutput(int playerIdx, String[] output) throws IOException {
+        }
+    }
+
+    interface FrameListener {
+        /**
+         * Receives the viewer frame of a round once all its actions have been applied.
+         */
+        void frame(int round, String[] frameData);
+    }
+
+    private static class StreamChannel implements PlayerChannel {
+        // Not a Scanner, whose patterns and locale data take a good part of the referee's startup
+        private BufferedReader s;
+        private PrintStream out;
+
+        public StreamChannel(InputStream is, PrintStream out) {
+            this.s = new BufferedReader(new InputStreamReader(is));
+            this.out = out;
+        }
+
+        private String nextLine() throws IOException {
+            String line = s.readLine();
+            if (line == null) {
+                throw new NoSuchElementException("No line found");
+            }
+            return line;
+        }
+
+        @Override
+        public void begin() throws IOException {
+            // Read ###Start 2
+            nextLine();
+        }
+
+        @Override
+        public void sendInput(int playerIdx, String[] initLines, String[] lines) {
+            out.println("###Input " + playerIdx);
+            if (initLines != null) {
+                for (String line : initLines) {
+                    out.println(line);
+                }
+            }
+            for (String line : lines) {
+                out.println(line);
+            }
+        }
+
+        @Override
+        public String[] readOutput(int playerIdx, int lineCount, int timeoutMillis) throws IOException {
+            out.println("###Output " + playerIdx + " " + lineCount);
+            String[] outputs = new String[lineCount];
+            for (int i = 0; i < lineCount; i++) {
+                outputs[i] = nextLine();
+            }
+            return outputs;
+        }
+
+        @Override
+        public void end(String ranking) {
+            out.println("###End " + ranking);
+        }
+
+        @Override
+        public void close() throws IOException {
+            s.close();
+        }
+    }
+
     private static class Tooltip {
         int player;
         String message;
@@ -1335,7 +2314,9 @@ abstract class AbstractReferee {
     private int frame, round;
     private PlayerStatus[] players;
     private String[] initLines;
-    private boolean newRound;
+    private boolean newRound, pipelined;
+    private FrameListener frameListener;
+    private int framedRound;
     private String reasonCode, reason;
 
     private InputStream is;
@@ -1347,34 +2328,46 @@ abstract class AbstractReferee {
         this.is = is;
         this.out = out;
         this.err = err;
-        start();
     }
 
-    @SuppressWarnings("resource")
+    /**
+     * In a simultaneous game, sends every player its input at the start of the round before reading any output, so
+     * the players think concurrently. Outputs are still handled in player order.
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public void setFrameListener(FrameListener frameListener) {
+        this.frameListener = frameListener;
+    }
+
     public void start() throws IOException {
+        start(new StreamChannel(is, out), new String[0]);
+    }
+
+    public void start(PlayerChannel channel, String[] init) throws IOException {
         try {
-            handleInitInputForReferee(2, new String[0]);
+            handleInitInputForReferee(2, init);
         } catch (InvalidFormatException e) {
             return;
         }
 
-        Scanner s = new Scanner(is);
-
         try {
-            // Read ###Start 2
-            s.nextLine();
-            playerCount = alivePlayerCount = 2;
-            players = new PlayerStatus[2];
-            players[0] = new PlayerStatus(0);
-            players[1] = new PlayerStatus(1);
+            channel.begin();
+            initPlayers(2);
             playerStatus = players[0];
             currentPlayer = nextPlayer = 1;
             round = -1;
+            framedRound = -1;
             newRound = true;
 
             while (true) {
                 lastPlayer = playerStatus;
                 playerStatus = nextPlayer();
+                if (newRound) {
+                    emitFrame();
+                }
 
                 if (this.round >= getMaxRoundCount(this.playerCount)) {
                     throw new GameOverException("maxRoundsCountReached");
@@ -1384,33 +2377,38 @@ abstract class AbstractReferee {
                     prepare(round);
                     if (!this.isTurnBasedGame()) {
                         for (PlayerStatus player : this.players) {
-                            if (!player.lost) {
+                            if (!player.lost && channel.wantsInput(player.id)) {
                                 player.nextInput = getInputForPlayer(round, player.id);
                             } else {
                                 player.nextInput = null;
                             }
                         }
+                        if (pipelined) {
+                            for (PlayerStatus player : this.players) {
+                                if (player.nextInput != null) {
+                                    channel.sendInput(player.id, this.round == 0 ? getInitInputForPlayer(player.id) : null, player.nextInput);
+                                }
+                            }
+                        }
                     }
                 }
 
-                out.println("###Input " + nextPlayer);
-                if (this.round == 0) {
-                    for (String line : getInitInputForPlayer(nextPlayer)) {
-                        out.println(line);
-                    }
-                }
-                for (String line : this.players[nextPlayer].nextInput) {
-                    out.println(line);
+                if ((!pipelined || this.isTurnBasedGame()) && channel.wantsInput(nextPlayer)) {
+                    channel.sendInput(nextPlayer, this.round == 0 ? getInitInputForPlayer(nextPlayer) : null, this.players[nextPlayer].nextInput);
                 }
 
                 int expectedOutputLineCount = getExpectedOutputLineCountForPlayer(nextPlayer);
-                out.println("###Output " + nextPlayer + " " + expectedOutputLineCount);
+                int timeout = this.round == 0 ? getMillisTimeForFirstRound() : getMillisTimeForRound();
                 try {
-                    String[] outputs = new String[expectedOutputLineCount];
-                    for (int i = 0; i < expectedOutputLineCount; i++) {
-                        outputs[i] = s.nextLine();
+                    String[] outputs = channel.readOutput(nextPlayer, expectedOutputLineCount, timeout);
+                    if (outputs == null) {
+                        setPlayerTimeout(0, round, nextPlayer);
+                        playerStatus.score = getScore(nextPlayer);
+                        playerStatus.lost = true;
+                        playerStatus.info = "Timeout";
+                    } else {
+                        handlePlayerOutput(0, round, nextPlayer, outputs);
                     }
-                    handlePlayerOutput(0, round, nextPlayer, outputs);
                 } catch (WinException e) {
                     playerStatus.score = getScore(nextPlayer);
                     playerStatus.win = true;
@@ -1428,24 +2426,52 @@ abstract class AbstractReferee {
             newRound = true;
             reasonCode = e.getReasonCode();
             reason = e.getReason();
-            err.println(reason);
+            if (err != null) {
+                err.println(reason);
+            }
+            emitFrame();
             prepare(round);
             updateScores();
             if (players[0].score > players[1].score) {
-                out.println("###End 0 1");
+                channel.end("0 1");
             } else if (players[0].score < players[1].score) {
-                out.println("###End 1 0");
+                channel.end("1 0");
             } else {
-                out.println("###End 01");
+                channel.end("01");
             }
         } finally {
-            s.close();
+            channel.close();
+        }
+    }
+
+    private void emitFrame() {
+        if (frameListener != null && round > framedRound) {
+            framedRound = round;
+            frameListener.frame(round, getFrameDataForView(round, round, true));
+        }
+    }
+
+    /**
+     * Counts every player alive for a new game, which start does before the first round.
+     */
+    void initPlayers(int playerCount) {
+        this.playerCount = alivePlayerCount = playerCount;
+        players = new PlayerStatus[playerCount];
+        for (int i = 0; i < playerCount; ++i) {
+            players[i] = new PlayerStatus(i);
         }
     }
 
     private PlayerStatus nextPlayer() throws GameOverException {
         currentPlayer = nextPlayer;
         newRound = false;
+        boolean playing = false;
+        for (PlayerStatus player : players) {
+            playing |= !player.lost && !player.win;
+        }
+        if (!playing) {
+            throw new GameOverException(null);
+        }
         do {
             ++nextPlayer;
             if (nextPlayer >= playerCount) {
@@ -1564,11 +2590,8 @@ abstract class AbstractReferee {
     }
 
     protected final String translate(String code, Object... values) {
-        try {
-            return String.format((String) messages.get(code), values);
-        } catch (NullPointerException e) {
-            return code;
-        }
+        String format = (String) messages.get(code);
+        return format == null ? code : String.format(format, values);
     }
 
     protected final void printError(Object message) {
@@ -0,0 +1,39 @@
+/**
+ * Receives what the referee does, for profiling. INSTANCE is the flight recorder events of src/jfr/FlightEvents.java
+ * when they were compiled and the JVM was started with a flight recording (-XX:StartFlightRecording); otherwise it is
+ * null and the referee skips every call.
+ */
+interface RefereeEvents {
+    RefereeEvents INSTANCE = load();
+
+    static RefereeEvents load() {
+        try {
+            return (RefereeEvents) Class.forName("FlightEvents").getMethod("load").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Not compiled, or no flight recorder in this JVM
+            return null;
+        }
+    }
+
+    void gameStarted(long seed, int league);
+
+    /**
+     * @return what roundEnded needs to time the round
+     */
+    Object roundStarted();
+
+    void roundEnded(Object round, long seed, int roundNumber, int transfers);
+
+    /**
+     * @return what actionEnded needs to time the action
+     */
+    Object actionStarted();
+
+    /**
+     * @param outcome OK or the Referee.Refusal of the action
+     * @param lossReason the reason the player lost, or null
+     */
+    void actionEnded(Object action, long seed, int round, int playerIdx, String line, String outcome, String lossReason);
+
+    void gameEnded(long seed, int score0, int score1);
+}
@@ -0,0 +1,330 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * An append-only directory of games:
+ *
+ * <pre>
+ * games.dat  the records, back to back, read through memory mappings
+ * games.idx  one {@value #INDEX_ENTRY_SIZE} byte entry per game: long seed, long offset, int length, short bot0, short bot1, byte winner (2 for a draw), byte league,
+ *            byte flags ({@value #SPLIT_RANDOM} for a game dealt by a split GameRandom) and padding
+ * bots.txt   the bot names, the line number being the id used by the index
+ * </pre>
+ *
+ * A record is: long seed, byte league, int score0, int score1, then for each player the number of reads followed by
+ * each read as a line count (-1 for a timeout) and the lines as UTF-8 length and bytes.
+ *
+ * An entry is only added to the index once its record is written, so entries past the end of the data and a torn
+ * record after the last entry are dropped when the archive is opened again.
+ */
+class ReplayArchive implements AutoCloseable {
+    static final int INDEX_ENTRY_SIZE = 32;
+    static final int DRAW = 2;
+    static final int SPLIT_RANDOM = 1;
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int MAX_RECORD_SIZE = 16 << 20;
+
+    private final RandomAccessFile dataFile;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final File botsFile;
+    private final List<String> bots = new ArrayList<>();
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private long dataSize;
+
+    private int size;
+    private long[] seeds = new long[1024];
+    private long[] offsets = new long[1024];
+    private int[] lengths = new int[1024];
+    private short[] bot0 = new short[1024];
+    private short[] bot1 = new short[1024];
+    private byte[] winners = new byte[1024];
+    private byte[] leagues = new byte[1024];
+    private byte[] flags = new byte[1024];
+
+    public ReplayArchive(File directory) throws IOException {
+        directory.mkdirs();
+        botsFile = new File(directory, "bots.txt");
+        if (botsFile.exists()) {
+            bots.addAll(Files.readAllLines(botsFile.toPath(), StandardCharsets.UTF_8));
+        }
+        dataFile = new RandomAccessFile(new File(directory, "games.dat"), "rw");
+        data = dataFile.getChannel();
+        index = new RandomAccessFile(new File(directory, "games.idx"), "rw").getChannel();
+        loadIndex();
+    }
+
+    private void loadIndex() throws IOException {
+        long dataLength = data.size();
+        int entries = (int) (index.size() / INDEX_ENTRY_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_ENTRY_SIZE * 1024);
+        index.position(0);
+        while (size < entries) {
+            buffer.clear();
+            ((Buffer) buffer).limit(Math.min(buffer.capacity(), (entries - size) * INDEX_ENTRY_SIZE));
+            while (buffer.hasRemaining() && index.read(buffer) >= 0) {
+            }
+            buffer.flip();
+            while (buffer.remaining() >= INDEX_ENTRY_SIZE) {
+                long seed = buffer.getLong();
+                long offset = buffer.getLong();
+                int length = buffer.getInt();
+                short b0 = buffer.getShort();
+                short b1 = buffer.getShort();
+                byte winner = buffer.get();
+                byte league = buffer.get();
+                byte flag = buffer.get();
+                buffer.get();
+                buffer.getInt();
+                if (offset + length > dataLength || b0 >= bots.size() || b1 >= bots.size()) {
+                    entries = size;
+                    break;
+                }
+                addEntry(seed, offset, length, b0, b1, winner, league, flag);
+            }
+        }
+        index.truncate((long) size * INDEX_ENTRY_SIZE);
+        index.position(index.size());
+        dataSize = size == 0 ? 0 : offsets[size - 1] + lengths[size - 1];
+        data.truncate(dataSize);
+    }
+
+    private void addEntry(long seed, long offset, int length, short b0, short b1, byte winner, byte league, byte flag) {
+        if (size == seeds.length) {
+            int capacity = size * 2;
+            seeds = Arrays.copyOf(seeds, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            bot0 = Arrays.copyOf(bot0, capacity);
+            bot1 = Arrays.copyOf(bot1, capacity);
+            winners = Arrays.copyOf(winners, capacity);
+            leagues = Arrays.copyOf(leagues, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        seeds[size] = seed;
+        offsets[size] = offset;
+        lengths[size] = length;
+        bot0[size] = b0;
+        bot1[size] = b1;
+        winners[size] = winner;
+        leagues[size] = league;
+        flags[size] = flag;
+        size++;
+    }
+
+    private short botId(String name) throws IOException {
+        int id = bots.indexOf(name);
+        if (id < 0) {
+            if (bots.size() == Short.MAX_VALUE) {
+                throw new IOException("Too many bots in the archive");
+            }
+            id = bots.size();
+            bots.add(name);
+            Files.write(botsFile.toPath(), bots, StandardCharsets.UTF_8);
+        }
+        return (short) id;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the position of the game in the archive
+     */
+    public synchronized int append(GameRecord record) throws IOException {
+        ByteBuffer buffer = encode(record);
+        int length = buffer.remaining();
+        if (length > MAX_RECORD_SIZE) {
+            throw new IOException("Game record of " + length + " bytes is too large");
+        }
+        short b0 = botId(record.bots[0]);
+        short b1 = botId(record.bots[1]);
+        int winner = record.getResult().getWinner();
+        byte flag = (byte) (record.splitRandom ? SPLIT_RANDOM : 0);
+
+        long offset = dataSize;
+        while (buffer.hasRemaining()) {
+            data.write(buffer, offset + length - buffer.remaining());
+        }
+        dataSize += length;
+
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        entry.putLong(record.seed).putLong(offset).putInt(length).putShort(b0).putShort(b1).put((byte) (winner < 0 ? DRAW : winner)).put((byte) record.league);
+        entry.put(flag).put((byte) 0).putInt(0).flip();
+        while (entry.hasRemaining()) {
+            index.write(entry);
+        }
+        addEntry(record.seed, offset, length, b0, b1, (byte) (winner < 0 ? DRAW : winner), (byte) record.league, flag);
+        return size - 1;
+    }
+
+    private static ByteBuffer encode(GameRecord record) {
+        List<byte[]> lines = new ArrayList<>();
+        int length = 8 + 1 + 4 * 2;
+        for (List<String[]> playerOutputs : record.outputs) {
+            length += 4;
+            for (String[] output : playerOutputs) {
+                length += 4;
+                if (output != null) {
+                    for (String line : output) {
+                        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                        lines.add(bytes);
+                        length += 4 + bytes.length;
+                    }
+                }
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putLong(record.seed).put((byte) record.league).putInt(record.scores[0]).putInt(record.scores[1]);
+        int line = 0;
+        for (List<String[]> playerOutputs : record.outputs) {
+            buffer.putInt(playerOutputs.size());
+            for (String[] output : playerOutputs) {
+                buffer.putInt(output == null ? -1 : output.length);
+                if (output != null) {
+                    for (int i = 0; i < output.length; ++i) {
+                        byte[] bytes = lines.get(line++);
+                        buffer.putInt(bytes.length).put(bytes);
+                    }
+                }
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return a read-only view of the game's record inside the mapped data file, without copying it
+     */
+    public ByteBuffer read(int game) throws IOException {
+        long offset;
+        int length;
+        MappedByteBuffer segment;
+        synchronized (this) {
+            if (game < 0 || game >= size) {
+                throw new IndexOutOfBoundsException("Game " + game + " of " + size);
+            }
+            offset = offsets[game];
+            length = lengths[game];
+            segment = segment((int) (offset / SEGMENT_SIZE), offset + length);
+        }
+        ByteBuffer view = segment.duplicate();
+        int position = (int) (offset % SEGMENT_SIZE);
+        ((Buffer) view).limit(position + length);
+        ((Buffer) view).position(position);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Segment k maps the data from k * SEGMENT_SIZE on, running over into the next segment by up to MAX_RECORD_SIZE
+     * so that every record fits in the segment it starts in. It is mapped again once the data has grown past it.
+     */
+    private MappedByteBuffer segment(int k, long end) throws IOException {
+        while (segments.size() <= k) {
+            segments.add(null);
+        }
+        MappedByteBuffer segment = segments.get(k);
+        long start = k * SEGMENT_SIZE;
+        if (segment == null || start + segment.capacity() < end) {
+            segment = data.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE + MAX_RECORD_SIZE, dataSize - start));
+            segments.set(k, segment);
+        }
+        return segment;
+    }
+
+    public GameRecord get(int game) throws IOException {
+        ByteBuffer buffer = read(game);
+        long seed = buffer.getLong();
+        int league = buffer.get();
+        int[] scores = { buffer.getInt(), buffer.getInt() };
+        List<List<String[]>> outputs = new ArrayList<>();
+        for (int p = 0; p < GameRecord.PLAYER_COUNT; ++p) {
+            int reads = buffer.getInt();
+            List<String[]> playerOutputs = new ArrayList<>(reads);
+            for (int r = 0; r < reads; ++r) {
+                int lineCount = buffer.getInt();
+                String[] output = lineCount < 0 ? null : new String[lineCount];
+                for (int i = 0; i < lineCount; ++i) {
+                    byte[] bytes = new byte[buffer.getInt()];
+                    buffer.get(bytes);
+                    output[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+                playerOutputs.add(output);
+            }
+            outputs.add(playerOutputs);
+        }
+        String[] names;
+        boolean splitRandom;
+        synchronized (this) {
+            names = new String[] { bots.get(bot0[game]), bots.get(bot1[game]) };
+            splitRandom = (flags[game] & SPLIT_RANDOM) != 0;
+        }
+        return new GameRecord(seed, league, splitRandom, names, scores, outputs);
+    }
+
+    /**
+     * @param seed the seed, or null for any
+     * @param bot0 the first player, or null for any
+     * @param bot1 the second player, or null for any
+     * @param winner 0 or 1 for the winning player, {@link #DRAW}, or null for any
+     * @return the positions of the matching games
+     */
+    public synchronized int[] find(Long seed, String bot0, String bot1, Integer winner) {
+        int id0 = bot0 == null ? -1 : bots.indexOf(bot0);
+        int id1 = bot1 == null ? -1 : bots.indexOf(bot1);
+        if ((bot0 != null && id0 < 0) || (bot1 != null && id1 < 0)) {
+            return new int[0];
+        }
+        int[] matches = new int[16];
+        int count = 0;
+        for (int i = 0; i < size; ++i) {
+            if ((seed == null || seeds[i] == seed) && (id0 < 0 || this.bot0[i] == id0) && (id1 < 0 || this.bot1[i] == id1)
+                    && (winner == null || winners[i] == winner)) {
+                if (count == matches.length) {
+                    matches = Arrays.copyOf(matches, count * 2);
+                }
+                matches[count++] = i;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * Plays the given games again on all cores, passing each game's position and new result to the consumer.
+     */
+    public void resimulate(int[] games, GameScan scan) {
+        IntStream.of(games).parallel().forEach(game -> {
+            try {
+                GameRecord record = get(game);
+                scan.game(game, record, record.replay());
+            } catch (IOException e) {
+                throw new RuntimeException("Game " + game + ": " + e, e);
+            }
+        });
+    }
+
+    interface GameScan {
+        void game(int position, GameRecord record, GameResult replayed);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        segments.clear();
+        index.close();
+        data.close();
+        dataFile.close();
+    }
+}
@@ -0,0 +1,40 @@
+import java.util.List;
+
+/**
+ * Answers with recorded outputs, and with a timeout once they run out.
+ */
+class ReplayChannel implements Referee.PlayerChannel {
+    private final List<List<String[]>> outputs;
+    private final int[] reads = new int[GameRecord.PLAYER_COUNT];
+
+    public ReplayChannel(List<List<String[]>> outputs) {
+        this.outputs = outputs;
+    }
+
+    @Override
+    public void begin() {
+    }
+
+    @Override
+    public void sendInput(int playerIdx, String[] initLines, String[] lines) {
+    }
+
+    @Override
+    public String[] readOutput(int playerIdx, int lineCount, int timeoutMillis) {
+        List<String[]> playerOutputs = outputs.get(playerIdx);
+        return reads[playerIdx] < playerOutputs.size() ? playerOutputs.get(reads[playerIdx]++) : null;
+    }
+
+    @Override
+    public boolean wantsInput(int playerIdx) {
+        return false;
+    }
+
+    @Override
+    public void end(String ranking) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
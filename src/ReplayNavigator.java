@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Moves back and forth through a recorded game, round by round. The game is played again from its seed and recorded
+ * outputs, keeping a snapshot every {@code interval} rounds on the way, so that seeking to any round, forward or
+ * backward, plays at most {@code interval} rounds.
+ */
+class ReplayNavigator {
+    static final int DEFAULT_INTERVAL = 10;
+
+    /**
+     * The game at the start of a round, before the players are sent their input.
+     */
+    static final class Checkpoint {
+        final int round;
+        final Referee.Snapshot state;
+        final boolean[] lost;
+
+        Checkpoint(int round, Referee.Snapshot state, boolean[] lost) {
+            this.round = round;
+            this.state = state;
+            this.lost = lost.clone();
+        }
+    }
+
+    private final GameRecord record;
+    private final int interval;
+    private final Referee referee;
+    // checkpoints.get(i) is at round i * interval
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private final boolean[] lost = new boolean[GameRecord.PLAYER_COUNT];
+    private int round;
+    private boolean over;
+
+    public ReplayNavigator(GameRecord record, int interval) throws IOException {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Snapshot interval must be positive");
+        }
+        this.record = record;
+        this.interval = interval;
+        referee = newReferee(record);
+        checkpoints.add(new Checkpoint(0, referee.snapshot(), lost));
+    }
+
+    /**
+     * @return a referee at the start of the recorded game
+     */
+    static Referee newReferee(GameRecord record) throws IOException {
+        Referee referee = new Referee(null, null, null, record.getRules());
+        try {
+            referee.handleInitInputForReferee(GameRecord.PLAYER_COUNT, new String[] { "seed=" + record.seed });
+        } catch (Referee.InvalidFormatException e) {
+            throw new IllegalStateException(e);
+        }
+        referee.initPlayers(GameRecord.PLAYER_COUNT);
+        return referee;
+    }
+
+    /**
+     * @return the round the game is at; the round after the last one played once the game is over
+     */
+    public int getRound() {
+        return round;
+    }
+
+    public boolean isOver() {
+        return over;
+    }
+
+    /**
+     * Moves to the start of round, or to the end of the game if it ended before.
+     */
+    public void seek(int round) {
+        round = Math.max(0, round);
+        Checkpoint checkpoint = checkpoints.get(Math.min(round / interval, checkpoints.size() - 1));
+        if (round < this.round || checkpoint.round > this.round) {
+            referee.restore(checkpoint.state);
+            System.arraycopy(checkpoint.lost, 0, lost, 0, lost.length);
+            this.round = checkpoint.round;
+            over = false;
+        }
+        while (this.round < round && !over) {
+            step();
+        }
+    }
+
+    public void next() {
+        seek(round + 1);
+    }
+
+    public void previous() {
+        seek(round - 1);
+    }
+
+    /**
+     * @return the lines sent to the player at the start of the game
+     */
+    public String[] getInitInputForPlayer(int playerIdx) {
+        return referee.getInitInputForPlayer(playerIdx);
+    }
+
+    /**
+     * @return the lines the player was sent for the current round, or null if it did not play it
+     */
+    public String[] getInputForPlayer(int playerIdx) {
+        if (over || lost[playerIdx]) {
+            return null;
+        }
+        return referee.getInputForPlayer(round, playerIdx);
+    }
+
+    /**
+     * @return what the player answered in the current round, or null if it did not answer
+     */
+    public String[] getOutputForPlayer(int playerIdx) {
+        List<String[]> outputs = record.outputs.get(playerIdx);
+        return over || lost[playerIdx] || round >= outputs.size() ? null : outputs.get(round);
+    }
+
+    /**
+     * @return the game at the current round, which a referee from newReferee can restore and play on
+     */
+    Checkpoint checkpoint() {
+        return new Checkpoint(round, referee.snapshot(), lost);
+    }
+
+    public int getScore(int playerIdx) {
+        return referee.getScore(playerIdx);
+    }
+
+    Referee.PlayerData getPlayer(int playerIdx) {
+        return referee.getPlayer(playerIdx);
+    }
+
+    private void step() {
+        over = playRound(referee, round, lost, this::getOutputForPlayer);
+        ++round;
+        if (!over && round % interval == 0 && round / interval == checkpoints.size()) {
+            checkpoints.add(new Checkpoint(round, referee.snapshot(), lost));
+        }
+    }
+
+    /**
+     * Plays a round the way AbstractReferee.start does, marking the players who lose it.
+     *
+     * @param outputs what each player answers, null if it does not
+     * @return whether the game ended with the round
+     */
+    static boolean playRound(Referee referee, int round, boolean[] lost, IntFunction<String[]> outputs) {
+        referee.prepare(round);
+        boolean playing = false;
+        for (int p = 0; p < lost.length; ++p) {
+            if (lost[p]) {
+                continue;
+            }
+            String[] output = outputs.apply(p);
+            try {
+                if (output == null) {
+                    referee.setPlayerTimeout(0, round, p);
+                    lost[p] = true;
+                } else {
+                    referee.handlePlayerOutput(0, round, p, output);
+                    playing = true;
+                }
+            } catch (Referee.WinException e) {
+                return true;
+            } catch (Referee.LostException | Referee.InvalidInputException e) {
+                lost[p] = true;
+            }
+        }
+        if (!playing) {
+            return true;
+        }
+        try {
+            referee.updateGame(round + 1);
+            return referee.gameOver() || round + 1 >= referee.getMaxRoundCount(lost.length);
+        } catch (Referee.GameOverException e) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays the same bots over the same seeds for every point of a grid of rule variants, printing each point's statistics
+ * as soon as its games are done.
+ *
+ * <pre>
+ * grid := axis (';' axis)*
+ * axis := parameter '=' value (',' value)*
+ * parameter := maxStorage | maxTray | resourcePerType | scienceProjectValue | scienceProjectCount | maxRounds
+ *            | distance.MODULE.MODULE | deck (a file with one "rank a b c d e life gain" sample per line)
+ *            | random (legacy or split, see GameRandom)
+ * </pre>
+ */
+class RuleSweep {
+    static final class Axis {
+        final String parameter;
+        final String[] values;
+
+        Axis(String parameter, String[] values) {
+            this.parameter = parameter;
+            this.values = values;
+        }
+    }
+
+    static final class Point {
+        final int index;
+        final String label;
+        final Referee.Rules rules;
+        final AtomicInteger remaining;
+        final CampaignStats stats;
+
+        Point(int index, String label, Referee.Rules rules, int games) {
+            this.index = index;
+            this.label = label;
+            this.rules = rules;
+            this.remaining = new AtomicInteger(games);
+            this.stats = new CampaignStats(games);
+        }
+
+        String summary() {
+            CampaignStats.Summary summary = stats.snapshot();
+            long games = summary.played();
+            return String.format("%d\t%s\t%d\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f\t%.2f", index, label, games, 100 * summary.p1Rate(), 100 * summary.p1RateError(),
+                    100.0 * summary.draws / Math.max(1, games), summary.scores[0].mean, Math.sqrt(summary.scores[0].variance()), summary.scores[1].mean,
+                    Math.sqrt(summary.scores[1].variance()));
+        }
+    }
+
+    static final String HEADER = "point\tparameters\tgames\tp1 win%\t+-\tdraw%\tp1 score\tsd\tp2 score\tsd";
+
+    static List<Axis> parseGrid(String grid) {
+        List<Axis> axes = new ArrayList<>();
+        for (String axis : grid.split(";")) {
+            int equals = axis.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected parameter=values in " + axis);
+            }
+            axes.add(new Axis(axis.substring(0, equals).trim(), axis.substring(equals + 1).trim().split("\\s*,\\s*")));
+        }
+        return axes;
+    }
+
+    static Referee.Rules apply(Referee.Rules rules, String parameter, String value) throws IOException {
+        switch (parameter) {
+            case "maxStorage":
+                return rules.withMaxStorage(Integer.parseInt(value));
+            case "maxTray":
+                return rules.withMaxTray(Integer.parseInt(value));
+            case "resourcePerType":
+                return rules.withResourcePerType(Integer.parseInt(value));
+            case "scienceProjectValue":
+                return rules.withScienceProjectValue(Integer.parseInt(value));
+            case "scienceProjectCount":
+                return rules.withScienceProjectCount(Integer.parseInt(value));
+            case "maxRounds":
+                return rules.withMaxRounds(Integer.parseInt(value));
+            case "random":
+                if (!value.equals("legacy") && !value.equals("split")) {
+                    throw new IllegalArgumentException("random must be legacy or split");
+                }
+                return rules.withSplitRandom(value.equals("split"));
+            case "deck":
+                List<Referee.SampleCard> deck = new ArrayList<>();
+                for (String line : Files.readAllLines(new File(value).toPath(), StandardCharsets.UTF_8)) {
+                    if (!line.trim().isEmpty() && !line.trim().startsWith("#")) {
+                        deck.add(Referee.SampleCard.parse(line));
+                    }
+                }
+                return rules.withDeck(deck);
+            default:
+                if (parameter.startsWith("distance.")) {
+                    String[] modules = parameter.split("\\.");
+                    if (modules.length == 3) {
+                        return rules.withDistance(Referee.Module.valueOf(modules[1].toUpperCase()), Referee.Module.valueOf(modules[2].toUpperCase()), Integer.parseInt(value));
+                    }
+                }
+                throw new IllegalArgumentException("Unknown rule parameter " + parameter);
+        }
+    }
+
+    /**
+     * @return every combination of one value per axis, the last axis varying fastest
+     */
+    static List<Point> points(Referee.Rules base, List<Axis> axes, int games) throws IOException {
+        List<Point> points = new ArrayList<>();
+        int count = 1;
+        for (Axis axis : axes) {
+            count *= axis.values.length;
+        }
+        for (int index = 0; index < count; ++index) {
+            Referee.Rules rules = base;
+            StringBuilder label = new StringBuilder();
+            int rest = index;
+            for (int a = axes.size() - 1; a >= 0; --a) {
+                Axis axis = axes.get(a);
+                String value = axis.values[rest % axis.values.length];
+                rest /= axis.values.length;
+                rules = apply(rules, axis.parameter, value);
+                label.insert(0, (a > 0 ? " " : "") + axis.parameter + "=" + value);
+            }
+            points.add(new Point(index, label.toString(), rules, games));
+        }
+        return points;
+    }
+
+    static void sweep(Map<String, String> options) throws IOException, InterruptedException {
+        if (!options.containsKey("p1") || !options.containsKey("p2") || !options.containsKey("grid")) {
+            System.err.println(Runner.USAGE);
+            System.exit(1);
+        }
+        String p1Command = options.get("p1");
+        String p2Command = options.get("p2");
+        int games = Runner.intOption(options, "n", 100);
+        int threads = Runner.intOption(options, "t", Runtime.getRuntime().availableProcessors());
+        long seed = Runner.seedOption(options);
+        boolean reuse = options.containsKey("reuse");
+        List<Point> points;
+        try {
+            points = points(Runner.rulesOption(options), parseGrid(options.get("grid")), games);
+        } catch (IllegalArgumentException e) {
+            // Before any game is played
+            System.err.println("Bad grid: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        Runner.cacheOption(options);
+
+        System.out.println(HEADER);
+        AtomicInteger next = new AtomicInteger();
+        int total = points.size() * games;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; ++t) {
+            pool.execute(() -> {
+                BotProcess p1 = p1Command.startsWith(SparringAgent.PREFIX) ? null : new BotProcess("p1", p1Command, reuse);
+                BotProcess p2 = p2Command.startsWith(SparringAgent.PREFIX) ? null : new BotProcess("p2", p2Command, reuse);
+                try {
+                    for (int task = next.getAndIncrement(); task < total; task = next.getAndIncrement()) {
+                        Point point = points.get(task / games);
+                        int game = task % games;
+                        // Every point plays the same seeds, each seed once from each side
+                        boolean swapped = game % 2 == 1;
+                        try {
+                            GameResult result = Runner.play(point.rules, seed + game / 2, swapped ? new ProcessChannel(p2, p1) : new ProcessChannel(p1, p2), false,
+                                    swapped ? new String[] { p2Command, p1Command } : new String[] { p1Command, p2Command });
+                            point.stats.add(game, result.scores[swapped ? 1 : 0], result.scores[swapped ? 0 : 1]);
+                        } catch (IOException | RuntimeException e) {
+                            System.err.println("Point " + point.index + " game " + game + " failed: " + e);
+                            point.stats.fail(game);
+                            Runner.destroy(p1, p2);
+                        }
+                        if (point.remaining.decrementAndGet() == 0) {
+                            System.out.println(point.summary());
+                        }
+                    }
+                } finally {
+                    Runner.destroy(p1, p2);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+}
@@ -0,0 +1,452 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class Runner {
+    static final String USAGE = String.join("\n",
+            "usage: java -jar cg-c4l.jar <mode> [options]",
+            "",
+            "  run -p1 <cmd> -p2 <cmd> [-n games] [-t threads] [-s] [-reuse] [-pipeline] [-league level] [-seed seed] [-random split]",
+            "      [-cache-mb size] [-analytics file] [-view dir] [-archive dir] [-journal file] [-progress seconds]",
+            "      plays games between two bot processes started by the referee",
+            "      a <cmd> of agent:random, agent:greedy or agent:planner plays with an agent inside the referee instead",
+            "      -s         swap sides every other game",
+            "      -reuse     keep bots alive between games (see BotProcess)",
+            "      -pipeline  send both players their input before reading either output",
+            "      -random    deal each game from a random stream per purpose instead of java.util.Random (see GameRandom)",
+            "      -cache-mb  memory for initial game states kept for repeated seeds (default 64, 0 to disable)",
+            "      -analytics append per game statistics to file",
+            "      -view      write the viewer frames of every game to dir/<seed>.view, delta encoded",
+            "      -archive   append every game to the replay archive in dir",
+            "      -journal   record finished games in file and skip them when the same campaign is run again",
+            "      -progress  print the win rate and score margin so far every few seconds",
+            "",
+            "  replay -archive <dir> [-seed seed] [-bot0 cmd] [-bot1 cmd] [-winner 0|1|2]",
+            "      plays the matching archived games again and checks they end with the recorded scores",
+            "",
+            "  estimate -archive <dir> -game n [-round r] [-rollouts 200] [-policy planner] [-epsilon 0.1] [-t threads]",
+            "      estimates the first player's chance to win an archived game at every round, or at round r, by finishing",
+            "      the game many times with agents",
+            "",
+            "  navigate -archive <dir> -game n [-round r] [-k 10]",
+            "      prints what each player was sent and answered in round r of an archived game, or reads rounds to show",
+            "      from the standard input: a round number, n (next), p (previous) or q; seeking replays at most k rounds",
+            "",
+            "  coordinate -p1 <cmd> -p2 <cmd> [-n games] [-s] [-pipeline] [-league level] [-seed seed] [-random split] [-port port]",
+            "             [-batch 8] [-workers k] [-t threads] [-reuse] [-wait 60]",
+            "      plays the games of run in worker JVMs connected to a loopback port, handing them out in batches and giving",
+            "      the games of a worker that dies to the others; -workers starts k local workers with -t threads each",
+            "      the games left when no worker is connected and none can be restarted, or when none connects within -wait",
+            "      seconds without -workers, count as failed",
+            "",
+            "  work -port <port> [-t threads] [-reuse] [-cache-mb size]",
+            "      plays the games handed out by the coordinator listening on port",
+            "",
+            "  serve [-port 8080] [-t threads] [-reuse] [-cache-mb size] [-analytics file] [-archive dir]",
+            "      plays the jobs POSTed as JSON to http://127.0.0.1:<port>/jobs on one shared pool of threads and streams",
+            "      each job's results back as JSON lines (see BatchServer)",
+            "",
+            "  sweep -p1 <cmd> -p2 <cmd> -grid <grid> [-n games] [-t threads] [-reuse] [-league level] [-seed seed] [-random split]",
+            "      plays n games for every combination of rule values in the grid, e.g.",
+            "      -grid \"maxStorage=8,10,12;resourcePerType=4,5;distance.SAMPLES.DIAGNOSIS=2,3;deck=a.txt,b.txt\"",
+            "      (see RuleSweep), and prints the statistics of each combination once its games are done",
+            "",
+            "  alloc-check [-n games]",
+            "      plays agent games and fails if a step of the game loop allocates more than its budget (see AllocationBudget)",
+            "",
+            "  molecule-bench [-n iterations]",
+            "      times the packed molecule checks of the game loop against the int arrays they replaced (see MoleculeBench)",
+            "",
+            "  analytics -in <file>",
+            "      prints the mean of every statistic recorded with -analytics");
+
+    static volatile InitialStateCache initialStates = new InitialStateCache(64L << 20);
+    static volatile AnalyticsSink analytics;
+    static volatile File viewDirectory;
+    static volatile ReplayArchive archive;
+    static final int VIEW_KEY_FRAME_INTERVAL = 20;
+
+    public static void main(String... args) throws Exception {
+        if (args.length == 0) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        Map<String, String> options = parseOptions(args, 1);
+        switch (args[0]) {
+            case "run":
+                run(options);
+                break;
+            case "replay":
+                replay(options);
+                break;
+            case "estimate":
+                estimate(options);
+                break;
+            case "navigate":
+                navigate(options);
+                break;
+            case "coordinate":
+                GameFarm.coordinate(options);
+                break;
+            case "work":
+                GameFarm.work(options);
+                break;
+            case "serve":
+                BatchServer.serve(options);
+                break;
+            case "sweep":
+                RuleSweep.sweep(options);
+                break;
+            case "alloc-check":
+                if (!AllocationBudget.check(intOption(options, "n", 200))) {
+                    System.exit(1);
+                }
+                break;
+            case "molecule-bench":
+                if (!MoleculeBench.run(intOption(options, "n", 10000000))) {
+                    System.exit(1);
+                }
+                break;
+            case "analytics":
+                AnalyticsReader.summarize(new File(options.get("in")));
+                break;
+            default:
+                System.err.println(USAGE);
+                System.exit(1);
+        }
+    }
+
+    static Map<String, String> parseOptions(String[] args, int from) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = from; i < args.length; ++i) {
+            if (!args[i].startsWith("-")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            String key = args[i].substring(1);
+            if (i + 1 < args.length && (!args[i + 1].startsWith("-") || isNumber(args[i + 1]))) {
+                options.put(key, args[++i]);
+            } else {
+                options.put(key, "true");
+            }
+        }
+        return options;
+    }
+
+    private static boolean isNumber(String arg) {
+        try {
+            Double.parseDouble(arg);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    static int intOption(Map<String, String> options, String key, int defaultValue) {
+        return options.containsKey(key) ? Integer.parseInt(options.get(key)) : defaultValue;
+    }
+
+    static long seedOption(Map<String, String> options) {
+        return options.containsKey("seed") ? Long.parseLong(options.get("seed")) : new Random().nextLong();
+    }
+
+    static void cacheOption(Map<String, String> options) {
+        if (options.containsKey("cache-mb")) {
+            int size = intOption(options, "cache-mb", 64);
+            initialStates = size > 0 ? new InitialStateCache(((long) size) << 20) : null;
+        }
+    }
+
+    static void analyticsOption(Map<String, String> options) throws IOException {
+        if (options.containsKey("analytics")) {
+            analytics = new AnalyticsSink(new File(options.get("analytics")));
+        }
+    }
+
+    static void viewOption(Map<String, String> options) {
+        if (options.containsKey("view")) {
+            viewDirectory = new File(options.get("view"));
+            viewDirectory.mkdirs();
+        }
+    }
+
+    static void archiveOption(Map<String, String> options) throws IOException {
+        if (options.containsKey("archive")) {
+            archive = new ReplayArchive(new File(options.get("archive")));
+        }
+    }
+
+    /**
+     * Closes the analytics file and the replay archive.
+     */
+    static void closeSinks() throws IOException {
+        if (analytics != null) {
+            analytics.close();
+            analytics = null;
+        }
+        if (archive != null) {
+            archive.close();
+            archive = null;
+        }
+    }
+
+    static Referee.Rules rulesOption(Map<String, String> options) {
+        String random = options.getOrDefault("random", "legacy");
+        if (!random.equals("legacy") && !random.equals("split")) {
+            System.err.println("-random must be legacy or split");
+            System.exit(1);
+        }
+        return Referee.Rules.forLeague(intOption(options, "league", Referee.LEAGUE_LEVEL)).withSplitRandom(random.equals("split"));
+    }
+
+    static GameResult play(Referee.Rules rules, long seed, Referee.PlayerChannel channel) throws IOException {
+        return play(rules, seed, channel, false, null);
+    }
+
+    /**
+     * @param bots the names of the players, used when the game is archived
+     */
+    static GameResult play(Referee.Rules rules, long seed, Referee.PlayerChannel channel, boolean pipelined, String[] bots) throws IOException {
+        Referee referee = new Referee(null, null, null, rules);
+        referee.setInitialStateCache(initialStates);
+        referee.setPipelined(pipelined);
+        AnalyticsSink sink = analytics;
+        GameStats stats = sink == null ? null : new GameStats(seed, rules.leagueLevel);
+        referee.setStats(stats);
+        if (bots != null) {
+            for (int i = 0; i < bots.length; ++i) {
+                referee.setAgent(i, SparringAgent.forCommand(bots[i], seed, i));
+            }
+        }
+        File views = viewDirectory;
+        List<String> view = new ArrayList<>();
+        if (views != null) {
+            FrameDeltaEncoder encoder = new FrameDeltaEncoder(2, VIEW_KEY_FRAME_INTERVAL);
+            referee.setFrameListener((round, frame) -> encoder.encodeTo(frame, view));
+        }
+        ReplayArchive replays = archive;
+        RecordingChannel recording = replays == null ? null : new RecordingChannel(channel);
+        referee.start(recording == null ? channel : recording, new String[] { "seed=" + seed });
+        if (views != null) {
+            Files.write(new File(views, seed + ".view").toPath(), view, StandardCharsets.UTF_8);
+        }
+        GameResult result = new GameResult(seed, new int[] { referee.getScore(0), referee.getScore(1) });
+        if (stats != null) {
+            stats.finish(result.scores);
+            sink.submit(stats);
+        }
+        if (recording != null) {
+            replays.append(new GameRecord(seed, rules.leagueLevel, rules.splitRandom, bots == null ? new String[] { "0", "1" } : bots, result.scores, recording.getOutputs()));
+        }
+        return result;
+    }
+
+    static void destroy(BotProcess... bots) {
+        for (BotProcess bot : bots) {
+            if (bot != null) {
+                bot.destroy();
+            }
+        }
+    }
+
+    static void replay(Map<String, String> options) throws IOException {
+        try (ReplayArchive replays = new ReplayArchive(new File(options.get("archive")))) {
+            int[] games = replays.find(options.containsKey("seed") ? Long.valueOf(options.get("seed")) : null, options.get("bot0"), options.get("bot1"),
+                    options.containsKey("winner") ? Integer.valueOf(options.get("winner")) : null);
+            AtomicInteger mismatches = new AtomicInteger();
+            replays.resimulate(games, (position, record, replayed) -> {
+                if (!Arrays.equals(record.scores, replayed.scores)) {
+                    mismatches.incrementAndGet();
+                    System.out.println("Game " + position + " seed=" + record.seed + " recorded " + Arrays.toString(record.scores) + " replayed " + Arrays.toString(replayed.scores));
+                }
+            });
+            System.out.println(games.length + " games replayed, " + mismatches.get() + " mismatches");
+            if (mismatches.get() > 0) {
+                System.exit(1);
+            }
+        }
+    }
+
+    static void estimate(Map<String, String> options) throws IOException {
+        GameRecord record;
+        try (ReplayArchive replays = new ReplayArchive(new File(options.get("archive")))) {
+            record = replays.get(intOption(options, "game", 0));
+        }
+        WinEstimator estimator = new WinEstimator(record, options.getOrDefault("policy", "planner"), Double.parseDouble(options.getOrDefault("epsilon", "0.1")));
+        ForkJoinPool pool = new ForkJoinPool(intOption(options, "t", Runtime.getRuntime().availableProcessors()));
+        int rollouts = intOption(options, "rollouts", 200);
+        System.out.println("seed=" + record.seed + " " + record.bots[0] + " " + record.scores[0] + " - " + record.scores[1] + " " + record.bots[1]);
+        if (options.containsKey("round")) {
+            System.out.println(estimator.estimate(pool, intOption(options, "round", 0), rollouts));
+        } else {
+            for (WinEstimator.Estimate estimate : estimator.curve(pool, rollouts)) {
+                System.out.println(estimate);
+            }
+        }
+        pool.shutdown();
+    }
+
+    static void navigate(Map<String, String> options) throws IOException {
+        GameRecord record;
+        try (ReplayArchive replays = new ReplayArchive(new File(options.get("archive")))) {
+            record = replays.get(intOption(options, "game", 0));
+        }
+        ReplayNavigator navigator = new ReplayNavigator(record, intOption(options, "k", ReplayNavigator.DEFAULT_INTERVAL));
+        System.out.println("seed=" + record.seed + " " + record.bots[0] + " " + record.scores[0] + " - " + record.scores[1] + " " + record.bots[1]);
+        if (options.containsKey("round")) {
+            navigator.seek(intOption(options, "round", 0));
+            printRound(navigator);
+            return;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        printRound(navigator);
+        for (String line = in.readLine(); line != null && !line.trim().equals("q"); line = in.readLine()) {
+            line = line.trim();
+            if (line.isEmpty() || line.equals("n")) {
+                navigator.next();
+            } else if (line.equals("p")) {
+                navigator.previous();
+            } else {
+                try {
+                    navigator.seek(Integer.parseInt(line));
+                } catch (NumberFormatException e) {
+                    System.out.println("Expected a round number, n, p or q");
+                    continue;
+                }
+            }
+            printRound(navigator);
+        }
+    }
+
+    private static void printRound(ReplayNavigator navigator) {
+        System.out.println("round " + navigator.getRound() + (navigator.isOver() ? " (game over)" : "") + " scores " + navigator.getScore(0) + " " + navigator.getScore(1));
+        for (int p = 0; p < GameRecord.PLAYER_COUNT; ++p) {
+            String[] input = navigator.getInputForPlayer(p);
+            if (input == null) {
+                continue;
+            }
+            System.out.println("player " + p + " input:");
+            if (navigator.getRound() == 0) {
+                for (String line : navigator.getInitInputForPlayer(p)) {
+                    System.out.println(line);
+                }
+            }
+            for (String line : input) {
+                System.out.println(line);
+            }
+            String[] output = navigator.getOutputForPlayer(p);
+            System.out.println("player " + p + " output: " + (output == null ? "(timeout)" : String.join(" | ", output)));
+        }
+    }
+
+    static void run(Map<String, String> options) throws InterruptedException, IOException {
+        if (!options.containsKey("p1") || !options.containsKey("p2")) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+        Referee.Rules rules = rulesOption(options);
+        int games = intOption(options, "n", 1);
+        int threads = intOption(options, "t", 1);
+        boolean swap = options.containsKey("s");
+        boolean reuse = options.containsKey("reuse");
+        boolean pipelined = options.containsKey("pipeline");
+        File journalFile = options.containsKey("journal") ? new File(options.get("journal")) : null;
+        Long journaledSeed = journalFile == null || options.containsKey("seed") ? null : CampaignJournal.readSeed(journalFile);
+        long seed = journaledSeed != null ? journaledSeed : seedOption(options);
+        cacheOption(options);
+        analyticsOption(options);
+        viewOption(options);
+        archiveOption(options);
+
+        AtomicInteger next = new AtomicInteger();
+        CampaignStats stats = new CampaignStats(games);
+        CampaignJournal journal = null;
+        BitSet completed = new BitSet();
+        if (journalFile != null) {
+            journal = new CampaignJournal(journalFile, seed, "p1=" + options.get("p1") + "\np2=" + options.get("p2") + "\nleague=" + rules.leagueLevel + "\nswap=" + swap
+                    + (rules.splitRandom ? "\nrandom=split" : ""));
+            for (CampaignJournal.Entry entry : journal.getCompleted()) {
+                if (entry.game < games && !completed.get(entry.game)) {
+                    completed.set(entry.game);
+                    stats.add(entry.game, entry.result.scores[entry.swapped ? 1 : 0], entry.result.scores[entry.swapped ? 0 : 1]);
+                }
+            }
+            if (!completed.isEmpty()) {
+                System.out.println("Resuming after " + completed.cardinality() + " journaled games");
+            }
+        }
+        CampaignJournal finished = journal;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; ++t) {
+            pool.execute(() -> {
+                BotProcess p1 = options.get("p1").startsWith(SparringAgent.PREFIX) ? null : new BotProcess("p1", options.get("p1"), reuse);
+                BotProcess p2 = options.get("p2").startsWith(SparringAgent.PREFIX) ? null : new BotProcess("p2", options.get("p2"), reuse);
+                try {
+                    for (int game = next.getAndIncrement(); game < games; game = next.getAndIncrement()) {
+                        if (completed.get(game)) {
+                            continue;
+                        }
+                        boolean swapped = swap && game % 2 == 1;
+                        GameResult result;
+                        try {
+                            result = play(rules, seed + game, swapped ? new ProcessChannel(p2, p1) : new ProcessChannel(p1, p2), pipelined,
+                                    swapped ? new String[] { options.get("p2"), options.get("p1") } : new String[] { options.get("p1"), options.get("p2") });
+                        } catch (IOException | RuntimeException e) {
+                            System.err.println("Game " + game + " failed: " + e);
+                            destroy(p1, p2);
+                            stats.fail(game);
+                            continue;
+                        }
+                        if (finished != null) {
+                            finished.record(game, swapped, result);
+                        }
+                        int p1Score = result.scores[swapped ? 1 : 0];
+                        int p2Score = result.scores[swapped ? 0 : 1];
+                        stats.add(game, p1Score, p2Score);
+                        System.out.println("Game " + game + " seed=" + result.seed + " p1=" + p1Score + " p2=" + p2Score);
+                    }
+                } finally {
+                    destroy(p1, p2);
+                }
+            });
+        }
+        ScheduledExecutorService progress = null;
+        if (options.containsKey("progress")) {
+            int seconds = intOption(options, "progress", 10);
+            progress = Executors.newSingleThreadScheduledExecutor();
+            progress.scheduleAtFixedRate(() -> System.out.println("Progress " + stats.snapshot()), seconds, seconds, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        if (progress != null) {
+            progress.shutdownNow();
+        }
+        closeSinks();
+        if (journal != null) {
+            journal.close();
+        }
+
+        printSummary(stats.snapshot());
+    }
+
+    static void printSummary(CampaignStats.Summary summary) {
+        System.out.println(String.format("p1 wins %d, p2 wins %d, draws %d (%.2f%% for p1 over %d games)", summary.p1Wins, summary.p2Wins, summary.draws,
+                100 * summary.p1Rate(), summary.played()) + (summary.failed == 0 ? "" : ", " + summary.failed + " failed"));
+        System.out.println(String.format("p1 score margin %.2f sd %.2f", summary.margin.mean, Math.sqrt(summary.margin.variance())));
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * The reference opponents, selected by name with an {@value #PREFIX} prefix wherever a bot command is expected.
+ */
+abstract class SparringAgent implements Agent {
+    static final String PREFIX = "agent:";
+    static final String[] NAMES = { "random", "greedy", "planner" };
+    static final Referee.Module[] MODULES = { Referee.Module.SAMPLES, Referee.Module.DIAGNOSIS, Referee.Module.MOLECULES, Referee.Module.LABORATORY };
+
+    /**
+     * @return the agent named by command, or null if command starts a bot process
+     */
+    static Agent forCommand(String command, long seed, int playerIdx) {
+        return forCommand(command, new GameRandom(seed * 31 + playerIdx, false));
+    }
+
+    /**
+     * @param random the draws of a random agent
+     */
+    static Agent forCommand(String command, GameRandom random) {
+        if (!command.startsWith(PREFIX)) {
+            return null;
+        }
+        String name = command.substring(PREFIX.length());
+        switch (name) {
+            case "random":
+                return new RandomAgent(random);
+            case "greedy":
+                return new GreedyAgent();
+            case "planner":
+                return new PlannerAgent();
+            default:
+                throw new IllegalArgumentException("Unknown agent " + name + ", expected one of " + String.join(", ", NAMES));
+        }
+    }
+
+    static String goTo(Referee.Module module) {
+        return "GOTO " + module.name();
+    }
+
+    static String connect(Object data) {
+        return "CONNECT " + data;
+    }
+
+    static long available(Referee referee) {
+        long available = 0;
+        for (int i = 0; i < referee.molecules.length; ++i) {
+            available |= ((long) Math.max(0, referee.molecules[i])) << (i * Referee.Molecules.LANE_BITS);
+        }
+        return available;
+    }
+
+    /**
+     * @return whether the molecules the sample needs on top of expertise could ever be held at once
+     */
+    static boolean feasible(Referee referee, long expertise, Referee.Sample sample) {
+        long need = Referee.Molecules.minusSaturated(sample.packedCost, expertise);
+        if (Referee.Molecules.total(need) > referee.rules.maxStorage) {
+            return false;
+        }
+        for (int i = 0; i < Referee.MOLECULE_TYPES.length; ++i) {
+            if (Referee.Molecules.get(need, i) > referee.rules.resourcePerType) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntFunction;
+
+/**
+ * Estimates who is winning a recorded game at a given round: the game is played again up to that round from its
+ * recorded outputs once, then every rollout restores that position into its own referee and lets agents finish the
+ * game, many times over on a fork-join pool.
+ */
+class WinEstimator {
+    static final int LEAF_ROLLOUTS = 8;
+
+    /**
+     * Outcomes of the rollouts of one position, from the first player's point of view.
+     */
+    static final class Estimate {
+        final int round;
+        int rollouts, wins, draws;
+        double marginSum, marginSquareSum;
+
+        Estimate(int round) {
+            this.round = round;
+        }
+
+        void add(int[] scores) {
+            rollouts++;
+            if (scores[0] > scores[1]) {
+                wins++;
+            } else if (scores[0] == scores[1]) {
+                draws++;
+            }
+            double margin = scores[0] - scores[1];
+            marginSum += margin;
+            marginSquareSum += margin * margin;
+        }
+
+        Estimate merge(Estimate other) {
+            rollouts += other.rollouts;
+            wins += other.wins;
+            draws += other.draws;
+            marginSum += other.marginSum;
+            marginSquareSum += other.marginSquareSum;
+            return this;
+        }
+
+        /**
+         * @return the probability that the first player wins, counting draws as half a win
+         */
+        double winProbability() {
+            return rollouts == 0 ? 0 : (wins + 0.5 * draws) / rollouts;
+        }
+
+        /**
+         * @return the half width of the 95% confidence interval of winProbability
+         */
+        double winProbabilityError() {
+            double p = winProbability();
+            return rollouts == 0 ? 0 : 1.96 * Math.sqrt(p * (1 - p) / rollouts);
+        }
+
+        double meanMargin() {
+            return rollouts == 0 ? 0 : marginSum / rollouts;
+        }
+
+        /**
+         * @return the half width of the 95% confidence interval of meanMargin
+         */
+        double meanMarginError() {
+            if (rollouts < 2) {
+                return 0;
+            }
+            double mean = meanMargin();
+            double variance = Math.max(0, (marginSquareSum - rollouts * mean * mean) / (rollouts - 1));
+            return 1.96 * Math.sqrt(variance / rollouts);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("round %3d  p0 wins %5.1f%% +- %4.1f  margin %7.2f +- %5.2f  (%d rollouts)", round, 100 * winProbability(), 100 * winProbabilityError(), meanMargin(),
+                    meanMarginError(), rollouts);
+        }
+    }
+
+    private final GameRecord record;
+    private final String policy;
+    private final double epsilon;
+
+    /**
+     * @param policy the agent finishing the games for both players, see SparringAgent.forCommand
+     * @param epsilon the probability that a rollout plays a random legal action instead, which is what makes
+     *            rollouts of deterministic agents differ
+     */
+    public WinEstimator(GameRecord record, String policy, double epsilon) {
+        this.record = record;
+        this.policy = policy.startsWith(SparringAgent.PREFIX) ? policy : SparringAgent.PREFIX + policy;
+        this.epsilon = epsilon;
+        SparringAgent.forCommand(this.policy, 0, 0);
+    }
+
+    /**
+     * @return the number of rounds the recorded game lasted
+     */
+    public int rounds() {
+        return Math.max(record.outputs.get(0).size(), record.outputs.get(1).size());
+    }
+
+    public Estimate estimate(ForkJoinPool pool, int round, int rollouts) throws IOException {
+        ReplayNavigator navigator = new ReplayNavigator(record, Integer.MAX_VALUE);
+        navigator.seek(round);
+        return pool.invoke(new Rollouts(new Position(round, navigator), 0, rollouts));
+    }
+
+    /**
+     * @return one estimate for every round of the recorded game
+     */
+    public List<Estimate> curve(ForkJoinPool pool, int rollouts) throws IOException {
+        ReplayNavigator navigator = new ReplayNavigator(record, Integer.MAX_VALUE);
+        List<Rollouts> tasks = new ArrayList<>();
+        for (int round = 0; round < rounds(); ++round) {
+            navigator.seek(round);
+            tasks.add(new Rollouts(new Position(round, navigator), 0, rollouts));
+        }
+        return pool.invoke(new RecursiveTask<List<Estimate>>() {
+            @Override
+            protected List<Estimate> compute() {
+                List<Estimate> estimates = new ArrayList<>();
+                for (Rollouts task : ForkJoinTask.invokeAll(tasks)) {
+                    estimates.add(task.join());
+                }
+                return estimates;
+            }
+        });
+    }
+
+    /**
+     * The recorded game at the start of a round, played once and shared by the rollouts from there.
+     */
+    private static final class Position {
+        final int round;
+        // null once the recorded game is over
+        final ReplayNavigator.Checkpoint start;
+        final int[] scores;
+
+        Position(int round, ReplayNavigator navigator) {
+            this.round = round;
+            start = navigator.isOver() ? null : navigator.checkpoint();
+            scores = new int[] { navigator.getScore(0), navigator.getScore(1) };
+        }
+    }
+
+    private final class Rollouts extends RecursiveTask<Estimate> {
+        private static final long serialVersionUID = 1L;
+
+        private final Position position;
+        private final int from, to;
+
+        Rollouts(Position position, int from, int to) {
+            this.position = position;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Estimate compute() {
+            if (to - from > LEAF_ROLLOUTS) {
+                int middle = (from + to) >>> 1;
+                Rollouts left = new Rollouts(position, from, middle);
+                left.fork();
+                Estimate right = new Rollouts(position, middle, to).compute();
+                return right.merge(left.join());
+            }
+            Estimate estimate = new Estimate(position.round);
+            for (int i = from; i < to; ++i) {
+                try {
+                    estimate.add(rollout(position, i));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return estimate;
+        }
+    }
+
+    int[] rollout(Position position, int index) throws IOException {
+        if (position.start == null) {
+            return position.scores.clone();
+        }
+        Referee referee = ReplayNavigator.newReferee(record);
+        referee.restore(position.start.state);
+        boolean[] lost = position.start.lost.clone();
+        GameRandom random = new GameRandom((record.seed * 1000003L + position.round) * 1000003L + index, true);
+        Agent[] agents = new Agent[GameRecord.PLAYER_COUNT];
+        for (int p = 0; p < agents.length; ++p) {
+            agents[p] = new RolloutAgent(SparringAgent.forCommand(policy, random.split()), new RandomAgent(random.split()), random.split(), epsilon);
+        }
+        IntFunction<String[]> outputs = p -> new String[] { agents[p].act(referee, referee.getPlayer(p), referee.getPlayer(1 - p)) };
+        boolean over = false;
+        for (int round = position.start.round; !over; ++round) {
+            over = ReplayNavigator.playRound(referee, round, lost, outputs);
+        }
+        return new int[] { referee.getScore(0), referee.getScore(1) };
+    }
+
+    private static final class RolloutAgent implements Agent {
+        private final Agent policy, explorer;
+        private final GameRandom random;
+        private final double epsilon;
+
+        RolloutAgent(Agent policy, Agent explorer, GameRandom random, double epsilon) {
+            this.policy = policy;
+            this.explorer = explorer;
+            this.random = random;
+            this.epsilon = epsilon;
+        }
+
+        @Override
+        public String act(Referee referee, Referee.PlayerData me, Referee.PlayerData opponent) {
+            return random.nextDouble() < epsilon ? explorer.act(referee, me, opponent) : policy.act(referee, me, opponent);
+        }
+    }
+}
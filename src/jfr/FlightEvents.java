@@ -0,0 +1,132 @@
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The referee's flight recorder events. This file needs the jdk.jfr module of Java 11 or OpenJDK 8u262 and later,
+ * so it is compiled apart from src/*.java; see RefereeEvents.
+ */
+public class FlightEvents implements RefereeEvents {
+    @Name("code4life.GameStart")
+    @Label("Game Start")
+    @Category("Code4Life")
+    static class GameStart extends Event {
+        @Label("Seed")
+        long seed;
+        @Label("League")
+        int league;
+    }
+
+    @Name("code4life.Round")
+    @Label("Round")
+    @Category("Code4Life")
+    static class Round extends Event {
+        @Label("Seed")
+        long seed;
+        @Label("Round")
+        int round;
+        @Label("Transfers")
+        int transfers;
+    }
+
+    @Name("code4life.Action")
+    @Label("Action")
+    @Category("Code4Life")
+    static class Action extends Event {
+        @Label("Seed")
+        long seed;
+        @Label("Round")
+        int round;
+        @Label("Player")
+        int player;
+        @Label("Line")
+        String line;
+        @Label("Outcome")
+        String outcome;
+        @Label("Loss Reason")
+        String lossReason;
+    }
+
+    @Name("code4life.GameEnd")
+    @Label("Game End")
+    @Category("Code4Life")
+    static class GameEnd extends Event {
+        @Label("Seed")
+        long seed;
+        @Label("Score 0")
+        int score0;
+        @Label("Score 1")
+        int score1;
+    }
+
+    /**
+     * @return the events, or null if the JVM was not started with a flight recording
+     */
+    public static RefereeEvents load() {
+        return FlightRecorder.isAvailable() && FlightRecorder.isInitialized() ? new FlightEvents() : null;
+    }
+
+    @Override
+    public void gameStarted(long seed, int league) {
+        GameStart event = new GameStart();
+        if (event.shouldCommit()) {
+            event.seed = seed;
+            event.league = league;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object roundStarted() {
+        Round event = new Round();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void roundEnded(Object round, long seed, int roundNumber, int transfers) {
+        Round event = (Round) round;
+        event.end();
+        if (event.shouldCommit()) {
+            event.seed = seed;
+            event.round = roundNumber;
+            event.transfers = transfers;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object actionStarted() {
+        Action event = new Action();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void actionEnded(Object action, long seed, int round, int playerIdx, String line, String outcome, String lossReason) {
+        Action event = (Action) action;
+        event.end();
+        if (event.shouldCommit()) {
+            event.seed = seed;
+            event.round = round;
+            event.player = playerIdx;
+            event.line = line;
+            event.outcome = outcome;
+            event.lossReason = lossReason;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void gameEnded(long seed, int score0, int score1) {
+        GameEnd event = new GameEnd();
+        if (event.shouldCommit()) {
+            event.seed = seed;
+            event.score0 = score0;
+            event.score1 = score1;
+            event.commit();
+        }
+    }
+}